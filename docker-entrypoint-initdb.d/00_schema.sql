@@ -1,3 +1,6 @@
+-- baseline schema, later changes are versioned migrations in src/main/resources/db/migration
+CREATE EXTENSION IF NOT EXISTS btree_gist;
+
 CREATE TABLE users (
     id BIGSERIAL PRIMARY KEY,
     login TEXT NOT NULL UNIQUE,
@@ -24,6 +27,25 @@ CREATE TABLE permissions (
     UNIQUE (operation, role_id)
 );
 
+-- bumped by every write to roles/permissions, nodes poll it and reload their access tables on change
+CREATE TABLE acl_version (
+    id INTEGER PRIMARY KEY DEFAULT 1 CHECK (id = 1),
+    version BIGINT NOT NULL DEFAULT 0
+);
+INSERT INTO acl_version DEFAULT VALUES;
+
+CREATE FUNCTION acl_version_bump() RETURNS TRIGGER AS $$
+BEGIN
+    UPDATE acl_version SET version = version + 1;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER roles_acl_version AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON roles
+    FOR EACH STATEMENT EXECUTE FUNCTION acl_version_bump();
+CREATE TRIGGER permissions_acl_version AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON permissions
+    FOR EACH STATEMENT EXECUTE FUNCTION acl_version_bump();
+
 CREATE TABLE user_roles(
     user_id BIGINT NOT NULL REFERENCES users,
     role_id BIGINT NOT NULL REFERENCES roles,
@@ -43,9 +65,27 @@ CREATE TABLE user_info(
 
 CREATE TABLE tokens (
     userId BIGINT NOT NULL REFERENCES users UNIQUE,
-    token TEXT PRIMARY KEY
+    token TEXT PRIMARY KEY,
+    expires TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP + INTERVAL '1 day'
 );
+CREATE INDEX tokens_expires_idx ON tokens (expires);
 
+-- token_storage=digest: SHA-256 of token only, lost on crash (users log in again)
+CREATE UNLOGGED TABLE tokens_digest (
+    userId BIGINT NOT NULL REFERENCES users UNIQUE,
+    digest BYTEA NOT NULL,
+    expires TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP + INTERVAL '1 day'
+);
+CREATE INDEX tokens_digest_digest_idx ON tokens_digest USING HASH (digest);
+CREATE INDEX tokens_digest_expires_idx ON tokens_digest (expires);
+
+-- signed tokens (auth_mode=signed) of the user issued before revoked_at are rejected
+CREATE TABLE token_revocations (
+    user_id BIGINT PRIMARY KEY REFERENCES users,
+    revoked_at TIMESTAMP NOT NULL
+);
+
+-- range partitioned by month on dateTime by migration V5
 CREATE TABLE appointment (
     id BIGSERIAL PRIMARY KEY,
     dateTime TIMESTAMP NOT NULL,
@@ -62,5 +102,10 @@ CREATE TABLE appointment (
     patientDescription TEXT NOT NULL DEFAULT '',
 
     accessCode TEXT NOT NULL DEFAULT '',
-    result TEXT NOT NULL DEFAULT ''
+    result TEXT NOT NULL DEFAULT '',
+
+    -- [dateTime, dateTime + minimal_appointment_time], set by the application
+    period TSRANGE,
+    -- open slots of one doctor never overlap, enforced on concurrent inserts too
+    CONSTRAINT appointment_doctor_period_excl EXCLUDE USING gist (doctor_id WITH =, period WITH &&) WHERE (status = 0)
 );
@@ -69,6 +69,11 @@ SELECT '/api/appointment/cancel', r.id FROM roles r WHERE r.name IN ('ROLE_DOCTO
 INSERT INTO permissions(operation, role_id)
 SELECT '/api/appointment/find', r.id FROM roles r WHERE r.name IN ('ROLE_PATIENT', 'ROLE_DOCTOR', 'ROLE_CHIEF', 'ROLE_ADMIN');
 
+-----------------------------------------------------------------------------------------------------------------metrics
+
+INSERT INTO permissions(operation, role_id)
+SELECT '/api/metrics', r.id FROM roles r WHERE r.name = 'ROLE_ADMIN';
+
 ------------------------------------------------------------------------------------------------------------------------
 ------------------------------------------------------------------------------------------------------------------------
 
@@ -130,5 +135,4 @@ JOIN users u_p ON u_d.login = 'doctor' AND u_p.login = 'patient'
     LEFT JOIN user_info u_i_p ON u_p.id = u_i_p.user_id
 LIMIT 1;
 
-
-
+UPDATE appointment SET period = tsrange(dateTime, dateTime + INTERVAL '1799 seconds', '[]') WHERE period IS NULL;
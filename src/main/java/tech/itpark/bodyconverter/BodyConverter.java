@@ -2,6 +2,7 @@ package tech.itpark.bodyconverter;
 
 import java.io.Reader;
 import java.io.Writer;
+import java.util.function.Consumer;
 
 public interface BodyConverter {
   boolean canRead(String contentType, Class<?> clazz);
@@ -11,4 +12,7 @@ public interface BodyConverter {
   <T> T read(Reader reader, Class<T> clazz);
 
   void write(Writer writer, Object value);
+
+  // {"<name>": [...]}, every item is written as soon as source passes it, nothing is collected
+  <T> void writeArray(Writer writer, String name, Consumer<Consumer<T>> source);
 }
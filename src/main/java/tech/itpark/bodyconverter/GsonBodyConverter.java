@@ -1,12 +1,15 @@
 package tech.itpark.bodyconverter;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
 import lombok.RequiredArgsConstructor;
 import tech.itpark.exception.ConversionException;
 import tech.itpark.http.ContentTypes;
 
+import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
+import java.util.function.Consumer;
 
 @RequiredArgsConstructor
 // option -> r -> i -> enter
@@ -41,4 +44,18 @@ public class GsonBodyConverter implements BodyConverter {
       throw new ConversionException(e);
     }
   }
+
+  // source exceptions pass as is, only output errors are converted
+  @Override
+  public <T> void writeArray(Writer writer, String name, Consumer<Consumer<T>> source) {
+    try {
+      final var json = gson.newJsonWriter(writer);
+      json.beginObject().name(name).beginArray();
+      source.accept(item -> gson.toJson(item, item.getClass(), json));
+      json.endArray().endObject();
+      json.flush();
+    } catch (IOException | JsonIOException e) {
+      throw new ConversionException(e);
+    }
+  }
 }
@@ -4,17 +4,35 @@ import com.google.gson.Gson;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
 import org.springframework.context.annotation.PropertySource;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import tech.itpark.controller.AppointmentController;
+import tech.itpark.controller.MetricsController;
 import tech.itpark.controller.RolePermissionController;
 import tech.itpark.controller.UserController;
 import tech.itpark.bodyconverter.BodyConverter;
 import tech.itpark.bodyconverter.GsonBodyConverter;
 import tech.itpark.crypto.PasswordHasher;
 import tech.itpark.crypto.PasswordHasherDefaultImpl;
+import tech.itpark.crypto.SignedTokenCodec;
+import tech.itpark.crypto.SignedTokenGenerator;
+import tech.itpark.crypto.TokenGeneratorCompactImpl;
 import tech.itpark.crypto.TokenGenerator;
 import tech.itpark.crypto.TokenGeneratorDefaultImpl;
 import tech.itpark.http.Handler;
+import tech.itpark.jdbc.JdbcTemplate;
+import tech.itpark.jdbc.MigrationRunner;
+import tech.itpark.jdbc.StatementStats;
+import tech.itpark.jdbc.TrackingDataSource;
+import tech.itpark.security.AccessControl;
+import tech.itpark.security.AuthCache;
+import tech.itpark.security.SessionActivity;
+import tech.itpark.security.TokenFilter;
+import tech.itpark.security.TokenRevocations;
+import tech.itpark.service.AvailableSlotIndex;
+import tech.itpark.service.OpenSlotIndex;
+import tech.itpark.service.UserDirectory;
 
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
@@ -24,17 +42,35 @@ import java.security.NoSuchAlgorithmException;
 import java.util.AbstractMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 @Configuration
+@EnableScheduling
 @PropertySource("classpath:/app.properties")
 public class AppConfiguration {
   @Bean
-  public DataSource dataSource() throws NamingException {
+  public TrackingDataSource dataSource() throws NamingException {
     // Spring way:
     // return (DataSource) new JndiTemplate().lookup("java:/comp/env/jdbc/db");
     final var cxt = new InitialContext();
-    return (DataSource) cxt.lookup("java:/comp/env/jdbc/db");
+    return new TrackingDataSource((DataSource) cxt.lookup("java:/comp/env/jdbc/db"), DB_POOL_SIZE,
+        CONNECTION_SITE_SAMPLING);
+  }
+
+  @Bean
+  public JdbcTemplate jdbcTemplate(TrackingDataSource dataSource, StatementStats statementStats) {
+    return new JdbcTemplate(dataSource, JDBC_FETCH_SIZE, statementStats);
+  }
+
+  // schema changes after docker-entrypoint-initdb.d are applied from classpath db/migration on startup
+  @Bean(initMethod = "migrate")
+  public MigrationRunner migrationRunner(JdbcTemplate jdbcTemplate) {
+    return new MigrationRunner(jdbcTemplate, "classpath*:db/migration",
+        Map.of("minimal_appointment_time", Long.toString(MIN_APPOINTMENT_TIME)));
+  }
+
+  @Bean
+  public StatementStats statementStats() {
+    return new StatementStats(SLOW_STATEMENT_THRESHOLD);
   }
 
   @Bean
@@ -49,22 +85,86 @@ public class AppConfiguration {
 
   @Bean
   public TokenGenerator tokenGenerator() {
+    // token_storage: text (token as is) or digest (SHA-256 of token, compact base64url tokens)
+    if ("digest".equals(TOKEN_STORAGE)) {
+      return new TokenGeneratorCompactImpl();
+    }
     return new TokenGeneratorDefaultImpl();
   }
 
+  @Bean
+  public SignedTokenGenerator signedTokenGenerator(SignedTokenCodec codec) {
+    return new SignedTokenGenerator(codec, SIGNED_TOKEN_TTL);
+  }
+
+  @Bean
+  public SignedTokenCodec signedTokenCodec() {
+    return new SignedTokenCodec(SIGNED_TOKEN_SECRET);
+  }
+
+  @Bean
+  public TokenFilter tokenFilter() {
+    return new TokenFilter(TOKEN_FILTER_ENABLED, TOKEN_FILTER_CAPACITY, TOKEN_FILTER_FPP, TOKEN_FILTER_CLOCK_SKEW);
+  }
+
+  @Bean
+  public SessionActivity sessionActivity() {
+    return new SessionActivity();
+  }
+
+  @Bean
+  public TokenRevocations tokenRevocations() {
+    return new TokenRevocations();
+  }
+
+  @Bean
+  public AccessControl accessControl() {
+    return new AccessControl();
+  }
+
+  @Bean
+  public AuthCache authCache() {
+    return new AuthCache(AUTH_CACHE_SIZE, AUTH_CACHE_TTL);
+  }
+
+  @Bean
+  public OpenSlotIndex openSlotIndex() {
+    return new OpenSlotIndex(OPEN_SLOT_INDEX);
+  }
+
+  @Bean
+  public AvailableSlotIndex availableSlotIndex() {
+    return new AvailableSlotIndex(AVAILABLE_SLOT_INDEX);
+  }
+
+  @Bean
+  public UserDirectory userDirectory() {
+    return new UserDirectory(USER_DIRECTORY_TTL);
+  }
+
   @Bean
   public List<BodyConverter> bodyConverters() {
     return List.of(new GsonBodyConverter(new Gson()));
   }
 
   @Bean
-  public Map<String, Handler> routesPost(UserController userCtrl, AppointmentController appointCtrl, RolePermissionController rpCtrl) {
+  @DependsOn("migrationRunner")
+  public Map<String, Handler> routesPost(UserController userCtrl, AppointmentController appointCtrl, RolePermissionController rpCtrl,
+                                        MetricsController metricsCtrl) {
 
     AppParams.init(ROLE_ANONYMOUS, PROP_ROLES_NAME, PROP_ROLES_ACTIVE, ATTR_ROLES_PATIENT, ATTR_ROLES_DOCTOR, ATTR_ROLES_CHIEF, ATTR_ROLES_ADMIN);
 
-    AppParams.setRoleAttributes(rpCtrl.initRoleAttributes());
+    rpCtrl.refreshAccessControl();
+
+    appointCtrl.initParams(MIN_APPOINTMENT_TIME, START_APPOINTMENT_PERIOD, END_APPOINTMENT_PERIOD, APPOINTMENT_DAY_LIMIT,
+        PAGE_SIZE, PAGE_SIZE_MAX, USER_INFO_REFRESH_CHUNK, APPOINTMENT_RETENTION_MONTHS, OPEN_BULK_MAX,
+        // booking_mode: statement (conditional UPDATE, reasons looked up on failure) or function (book_appointment)
+        "function".equals(BOOKING_MODE));
+
+    // auth_mode: database (random token looked up in tokens table) or signed (stateless HMAC token)
+    userCtrl.initParams("signed".equals(AUTH_MODE), SIGNED_TOKEN_TTL, "digest".equals(TOKEN_STORAGE), TOKEN_TTL, TOKEN_SWEEP_CHUNK, PAGE_SIZE, PAGE_SIZE_MAX);
 
-    appointCtrl.initParams(MIN_APPOINTMENT_TIME, START_APPOINTMENT_PERIOD, END_APPOINTMENT_PERIOD, APPOINTMENT_DAY_LIMIT);
+    metricsCtrl.initParams(CONNECTION_LEAK_THRESHOLD);
 
     return Map.ofEntries(
               new AbstractMap.SimpleEntry<String, Handler>("/api/auth/register",      userCtrl::register),
@@ -90,11 +190,14 @@ public class AppConfiguration {
               new AbstractMap.SimpleEntry<String, Handler>("/api/user/roles/active",  userCtrl::activeUserRoles),
 
               new AbstractMap.SimpleEntry<String, Handler>("/api/appointment/open",   appointCtrl::open),
+              new AbstractMap.SimpleEntry<String, Handler>("/api/appointment/open/bulk", appointCtrl::openBulk),
               new AbstractMap.SimpleEntry<String, Handler>("/api/appointment/book",   appointCtrl::book),
               new AbstractMap.SimpleEntry<String, Handler>("/api/appointment/unbook", appointCtrl::unbook),
               new AbstractMap.SimpleEntry<String, Handler>("/api/appointment/close",  appointCtrl::close),
               new AbstractMap.SimpleEntry<String, Handler>("/api/appointment/cancel", appointCtrl::cancel),
               new AbstractMap.SimpleEntry<String, Handler>("/api/appointment/find",   appointCtrl::find),
+              new AbstractMap.SimpleEntry<String, Handler>("/api/appointment/next-available", appointCtrl::nextAvailable),
+              new AbstractMap.SimpleEntry<String, Handler>("/api/appointment/schedule", appointCtrl::schedule),
 
               new AbstractMap.SimpleEntry<String, Handler>("/api/permission/find",    rpCtrl::findPermissions),
               new AbstractMap.SimpleEntry<String, Handler>("/api/permission/append",  rpCtrl::appendPermissions),
@@ -102,14 +205,11 @@ public class AppConfiguration {
 
               new AbstractMap.SimpleEntry<String, Handler>("/api/roles/find",          rpCtrl::findRoles),
               new AbstractMap.SimpleEntry<String, Handler>("/api/roles/append",        rpCtrl::appendRoles),
-              new AbstractMap.SimpleEntry<String, Handler>("/api/roles/remove",        rpCtrl::removeRoles)
+              new AbstractMap.SimpleEntry<String, Handler>("/api/roles/remove",        rpCtrl::removeRoles),
 
-      );
-  }
+              new AbstractMap.SimpleEntry<String, Handler>("/api/metrics",             metricsCtrl::getMetrics)
 
-  @Bean
-  public Map<String, Set<String>> rolePermissions(RolePermissionController controller) {
-    return controller.initRolePermissions();
+      );
   }
 
 
@@ -146,4 +246,82 @@ public class AppConfiguration {
   @Value("${appointment_day_limit:1}")
   public long APPOINTMENT_DAY_LIMIT;
 
+  @Value("${auth_cache_size:10000}")
+  public int AUTH_CACHE_SIZE;
+
+  @Value("${auth_cache_ttl:60}")
+  public long AUTH_CACHE_TTL;
+
+  @Value("${auth_mode:database}")
+  public String AUTH_MODE;
+
+  @Value("${token_storage:text}")
+  public String TOKEN_STORAGE;
+
+  @Value("${token_ttl:86400}")
+  public long TOKEN_TTL;
+
+  @Value("${token_sweep_chunk:1000}")
+  public int TOKEN_SWEEP_CHUNK;
+
+  @Value("${signed_token_secret:}")
+  public String SIGNED_TOKEN_SECRET;
+
+  @Value("${signed_token_ttl:86400}")
+  public long SIGNED_TOKEN_TTL;
+
+  @Value("${token_filter_enabled:true}")
+  public boolean TOKEN_FILTER_ENABLED;
+
+
+  @Value("${token_filter_capacity:100000}")
+  public int TOKEN_FILTER_CAPACITY;
+
+  @Value("${token_filter_fpp:0.01}")
+  public double TOKEN_FILTER_FPP;
+
+  @Value("${token_filter_clock_skew:30}")
+  public long TOKEN_FILTER_CLOCK_SKEW;
+
+  @Value("${db_pool_size:25}")
+  public int DB_POOL_SIZE;
+
+  @Value("${connection_leak_threshold:30}")
+  public long CONNECTION_LEAK_THRESHOLD;
+
+  @Value("${connection_site_sampling:0}")
+  public int CONNECTION_SITE_SAMPLING;
+
+  @Value("${jdbc_fetch_size:500}")
+  public int JDBC_FETCH_SIZE;
+
+  @Value("${slow_statement_threshold:200}")
+  public long SLOW_STATEMENT_THRESHOLD;
+
+  @Value("${page_size:100}")
+  public int PAGE_SIZE;
+
+  @Value("${page_size_max:1000}")
+  public int PAGE_SIZE_MAX;
+
+  @Value("${user_info_refresh_chunk:500}")
+  public int USER_INFO_REFRESH_CHUNK;
+
+  @Value("${appointment_retention_months:0}")
+  public int APPOINTMENT_RETENTION_MONTHS;
+
+  @Value("${open_bulk_max:500}")
+  public int OPEN_BULK_MAX;
+
+  @Value("${booking_mode:statement}")
+  public String BOOKING_MODE;
+
+  @Value("${open_slot_index:true}")
+  public boolean OPEN_SLOT_INDEX;
+
+  @Value("${available_slot_index:true}")
+  public boolean AVAILABLE_SLOT_INDEX;
+
+  @Value("${user_directory_ttl:60}")
+  public long USER_DIRECTORY_TTL;
 }
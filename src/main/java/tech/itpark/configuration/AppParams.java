@@ -1,25 +1,34 @@
 package tech.itpark.configuration;
 
+import tech.itpark.security.RoleBits;
+
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+// Immutable snapshot of role configuration, replaced as a whole through a volatile reference
 public class AppParams {
-    private static String ROLE_ANONYMOUS;
+    private static volatile AppParams current = new AppParams(null, null, null, null, null, null, null, Map.of());
 
-    private static String ROLE_ATTRIBUTE_PATIENT;
-    private static String ROLE_ATTRIBUTE_DOCTOR;
-    private static String ROLE_ATTRIBUTE_CHIEF;
-    private static String ROLE_ATTRIBUTE_ADMIN;
+    private final String ROLE_ANONYMOUS;
 
-    private static  Map<String,Map<String, Boolean>> roleAttributes;
+    private final String ROLE_ATTRIBUTE_PATIENT;
+    private final String ROLE_ATTRIBUTE_DOCTOR;
+    private final String ROLE_ATTRIBUTE_CHIEF;
+    private final String ROLE_ATTRIBUTE_ADMIN;
 
-    private static String ROLE_PROPERTY_ACTIVE;
-    private static String ROLE_PROPERTY_NAME;
+    private final String ROLE_PROPERTY_ACTIVE;
+    private final String ROLE_PROPERTY_NAME;
 
+    private final Map<String,Map<String, Boolean>> roleAttributes;
+    private final Map<String, Set<String>> rolesByAttribute; // attribute -> roles having it
 
-    public static void init(String roleAnonymous, String rolePropertyName, String rolePropertyActive,
-        String roleAttributePatient,String roleAttributeDoctor, String roleAttributeChief, String roleAttributeAdmin){
+
+    private AppParams(String roleAnonymous, String rolePropertyName, String rolePropertyActive,
+        String roleAttributePatient, String roleAttributeDoctor, String roleAttributeChief, String roleAttributeAdmin,
+        Map<String,Map<String, Boolean>> roleAttributes){
         ROLE_ATTRIBUTE_PATIENT  = roleAttributePatient;
         ROLE_ATTRIBUTE_DOCTOR   = roleAttributeDoctor;
         ROLE_ATTRIBUTE_CHIEF    = roleAttributeChief;
@@ -27,105 +36,140 @@ public class AppParams {
         ROLE_PROPERTY_ACTIVE    = rolePropertyActive;
         ROLE_PROPERTY_NAME      = rolePropertyName;
         ROLE_ANONYMOUS          = roleAnonymous;
+
+        this.roleAttributes = Map.copyOf(roleAttributes);
+
+        final var index = new HashMap<String, Set<String>>();
+        roleAttributes.forEach((role, attributes) -> attributes.forEach((attribute, value) -> {
+            if (Boolean.TRUE.equals(value)) {
+                index.computeIfAbsent(attribute, a -> new HashSet<>()).add(role);
+            }
+        }));
+        this.rolesByAttribute = index.entrySet().stream()
+                .collect(Collectors.toUnmodifiableMap(Map.Entry::getKey, entry -> Set.copyOf(entry.getValue())));
+    }
+
+    public static synchronized void init(String roleAnonymous, String rolePropertyName, String rolePropertyActive,
+        String roleAttributePatient,String roleAttributeDoctor, String roleAttributeChief, String roleAttributeAdmin){
+        current = new AppParams(roleAnonymous, rolePropertyName, rolePropertyActive,
+                roleAttributePatient, roleAttributeDoctor, roleAttributeChief, roleAttributeAdmin, current.roleAttributes);
+    }
+
+    public static synchronized void setRoleAttributes(Map<String,Map<String, Boolean>> roleAttributes){
+        RoleBits.register(roleAttributes.keySet());
+        final var params = current;
+        current = new AppParams(params.ROLE_ANONYMOUS, params.ROLE_PROPERTY_NAME, params.ROLE_PROPERTY_ACTIVE,
+                params.ROLE_ATTRIBUTE_PATIENT, params.ROLE_ATTRIBUTE_DOCTOR, params.ROLE_ATTRIBUTE_CHIEF, params.ROLE_ATTRIBUTE_ADMIN,
+                roleAttributes);
     }
 
     public static String rolePropertyNAME(){
-        return ROLE_PROPERTY_NAME;
+        return current.ROLE_PROPERTY_NAME;
     }
     public static String rolePropertyACTIVE(){
-        return ROLE_PROPERTY_ACTIVE;
+        return current.ROLE_PROPERTY_ACTIVE;
     }
 
     public static String roleAttributePATIENT(){
-        return ROLE_ATTRIBUTE_PATIENT;
+        return current.ROLE_ATTRIBUTE_PATIENT;
     }
 
     public static String roleAttributeDOCTOR(){
-        return ROLE_ATTRIBUTE_DOCTOR;
+        return current.ROLE_ATTRIBUTE_DOCTOR;
     }
 
     public static String roleAttributeCHIEF(){
-        return ROLE_ATTRIBUTE_CHIEF;
+        return current.ROLE_ATTRIBUTE_CHIEF;
     }
 
     public static String roleAttributeADMIN(){
-        return ROLE_ATTRIBUTE_ADMIN;
+        return current.ROLE_ATTRIBUTE_ADMIN;
     }
 
 
 
 
     public static boolean isPatient(Set<String> userRoles) {
-        return hasRoleAttribute(userRoles, ROLE_ATTRIBUTE_PATIENT);
+        final var params = current;
+        return params.hasRoleAttribute(userRoles, params.ROLE_ATTRIBUTE_PATIENT);
     }
 
     public static boolean isDoctor(Set<String> userRoles){
-        return hasRoleAttribute(userRoles, ROLE_ATTRIBUTE_DOCTOR);
+        final var params = current;
+        return params.hasRoleAttribute(userRoles, params.ROLE_ATTRIBUTE_DOCTOR);
     }
 
     public static boolean isChief(Set<String> userRoles){
-        return hasRoleAttribute(userRoles, ROLE_ATTRIBUTE_CHIEF);
+        final var params = current;
+        return params.hasRoleAttribute(userRoles, params.ROLE_ATTRIBUTE_CHIEF);
     }
 
     public static boolean isAdmin(Set<String> userRoles){
-        return hasRoleAttribute(userRoles, ROLE_ATTRIBUTE_ADMIN);
+        final var params = current;
+        return params.hasRoleAttribute(userRoles, params.ROLE_ATTRIBUTE_ADMIN);
     }
 
 
-    public static void setRoleAttributes(Map<String,Map<String, Boolean>> roleAttributes){
-        AppParams.roleAttributes = roleAttributes;
-    }
-
     public static Map<String,Map<String, Boolean>> getRoleAttributes(){
-        return roleAttributes;
+        return current.roleAttributes;
     }
 
 
     public static Map<String, Boolean> getRolesActiveDefaults(Set<String> roles){
-        return roleAttributes.entrySet().stream()
-                .filter(entry -> roles.contains(entry.getKey()))
-                .collect(Collectors.toMap(entry -> entry.getKey(), entry -> entry.getValue().get(ROLE_PROPERTY_ACTIVE)));
+        final var params = current;
+        final var result = new HashMap<String, Boolean>();
+        for (String role : roles) {
+            final var attributes = params.roleAttributes.get(role);
+            if (attributes != null) {
+                result.put(role, attributes.get(params.ROLE_PROPERTY_ACTIVE));
+            }
+        }
+        return result;
     }
 
 
     public static Set<String> rolesAdmin(){
-        return getRolesByAttribute(ROLE_ATTRIBUTE_ADMIN);
+        final var params = current;
+        return params.getRolesByAttribute(params.ROLE_ATTRIBUTE_ADMIN);
     }
 
     public static Set<String> rolesChief(){
-        return getRolesByAttribute(ROLE_ATTRIBUTE_CHIEF);
+        final var params = current;
+        return params.getRolesByAttribute(params.ROLE_ATTRIBUTE_CHIEF);
     }
 
     public static Set<String> rolesDoctor(){
-        return getRolesByAttribute(ROLE_ATTRIBUTE_DOCTOR);
+        final var params = current;
+        return params.getRolesByAttribute(params.ROLE_ATTRIBUTE_DOCTOR);
     }
 
     public static Set<String> rolesPatient(){
-        return getRolesByAttribute(ROLE_ATTRIBUTE_PATIENT);
+        final var params = current;
+        return params.getRolesByAttribute(params.ROLE_ATTRIBUTE_PATIENT);
     }
 
     public static String roleAnonymous(){
-        return ROLE_ANONYMOUS;
+        return current.ROLE_ANONYMOUS;
     }
 
     public static Set<String> filterUnknownRoles(Set<String> roles){
-        return roles.stream().filter(r -> !roleAttributes.containsKey(r)).collect(Collectors.toSet());
+        final var params = current;
+        return roles.stream().filter(r -> !params.roleAttributes.containsKey(r)).collect(Collectors.toSet());
     }
 
 
-    private static Set<String> getRolesByAttribute(String role_attribute){
-        return  roleAttributes.entrySet()
-                .stream()
-                .filter(entry -> (entry.getValue()).get(role_attribute))
-                .map(Map.Entry::getKey).collect(Collectors.toSet());
+    private Set<String> getRolesByAttribute(String role_attribute){
+        return rolesByAttribute.getOrDefault(role_attribute, Set.of());
     }
 
-    private static boolean hasRoleAttribute(Set<String> roles, String roleAttribute){
-        final var rolesOfAttribute = roleAttributes.entrySet().stream()
-                .filter(entry -> (entry.getValue()).get(roleAttribute))
-                .map(Map.Entry::getKey)
-                .collect(Collectors.toSet());
-        return roles.stream().anyMatch(rolesOfAttribute::contains);
+    private boolean hasRoleAttribute(Set<String> roles, String roleAttribute){
+        final var rolesOfAttribute = getRolesByAttribute(roleAttribute);
+        for (String role : roles) {
+            if (rolesOfAttribute.contains(role)) {
+                return true;
+            }
+        }
+        return false;
     }
 
 }
@@ -6,12 +6,15 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Controller;
 import tech.itpark.bodyconverter.BodyConverter;
 import tech.itpark.dto.*;
+import tech.itpark.exception.ConflictException;
 import tech.itpark.http.ContentTypes;
+import tech.itpark.model.Appointment;
 import tech.itpark.security.HttpServletRequestAuthToken;
 import tech.itpark.service.AppointmentService;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.function.Consumer;
 
 @Controller
 @RequiredArgsConstructor
@@ -20,8 +23,11 @@ public class AppointmentController {
     private final List<BodyConverter> converters;
 
 
-    public void initParams(long minimalAppointmentTime, long startAppointmentPeriod, long endAppointmentPeriod, long appointmentDayLimit){
-        service.initParams(minimalAppointmentTime, startAppointmentPeriod, endAppointmentPeriod, appointmentDayLimit);
+    public void initParams(long minimalAppointmentTime, long startAppointmentPeriod, long endAppointmentPeriod, long appointmentDayLimit,
+                           int pageSize, int pageSizeMax, int userInfoRefreshChunk, int appointmentRetentionMonths,
+                           int openBulkMax, boolean bookingFunction){
+        service.initParams(minimalAppointmentTime, startAppointmentPeriod, endAppointmentPeriod, appointmentDayLimit, pageSize, pageSizeMax,
+                userInfoRefreshChunk, appointmentRetentionMonths, openBulkMax, bookingFunction);
     }
 
     public void open(HttpServletRequest request, HttpServletResponse response){
@@ -37,12 +43,45 @@ public class AppointmentController {
         }
     }
 
+    public void openBulk(HttpServletRequest request, HttpServletResponse response){
+        try {
+            final var auth = HttpServletRequestAuthToken.auth(request);
+            final var requestDto = read(AppointmentOpenBulkRequestDto.class, request);
+            final var responseDto = service.openBulk(requestDto, auth);
+            write(responseDto, ContentTypes.APPLICATION_JSON, response);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            response.setStatus(403); //Forbidden
+            write(new ErrorResponseDto(e.getMessage()), ContentTypes.APPLICATION_JSON, response);
+        }
+    }
+
+    // empty body or no templates field - current schedule, otherwise the schedule is replaced
+    public void schedule(HttpServletRequest request, HttpServletResponse response){
+        try {
+            final var auth = HttpServletRequestAuthToken.auth(request);
+            final var requestDto = read(AppointmentScheduleRequestDto.class, request);
+            final var responseDto = requestDto == null || requestDto.getTemplates() == null
+                    ? service.getSchedule(auth)
+                    : service.setSchedule(requestDto, auth);
+            write(responseDto, ContentTypes.APPLICATION_JSON, response);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            response.setStatus(403); //Forbidden
+            write(new ErrorResponseDto(e.getMessage()), ContentTypes.APPLICATION_JSON, response);
+        }
+    }
+
     public void book(HttpServletRequest request, HttpServletResponse response) {
         try{
             final var auth = HttpServletRequestAuthToken.auth(request);
             final var requestDto = read(AppointmentBookRequestDto.class, request);
             final var responseDto = service.book(requestDto, auth);
             write(responseDto, ContentTypes.APPLICATION_JSON, response);
+        } catch (ConflictException e) {
+            e.printStackTrace();
+            response.setStatus(409); //Conflict
+            write(new ErrorResponseDto(e.getMessage()), ContentTypes.APPLICATION_JSON, response);
         } catch (RuntimeException e) {
             e.printStackTrace();
             response.setStatus(403); //Forbidden
@@ -56,6 +95,10 @@ public class AppointmentController {
             final var requestDto = read(AppointmentUnBookRequestDto.class, request);
             final var responseDto = service.unBook(requestDto, auth);
             write(responseDto, ContentTypes.APPLICATION_JSON, response);
+        } catch (ConflictException e) {
+            e.printStackTrace();
+            response.setStatus(409); //Conflict
+            write(new ErrorResponseDto(e.getMessage()), ContentTypes.APPLICATION_JSON, response);
         } catch (RuntimeException e) {
             e.printStackTrace();
             response.setStatus(403); //Forbidden
@@ -70,6 +113,10 @@ public class AppointmentController {
             final var requestDto = read(AppointmentCloseRequestDto.class, request);
             final var responseDto = service.close(requestDto, auth);
             write(responseDto, ContentTypes.APPLICATION_JSON, response);
+        } catch (ConflictException e) {
+            e.printStackTrace();
+            response.setStatus(409); //Conflict
+            write(new ErrorResponseDto(e.getMessage()), ContentTypes.APPLICATION_JSON, response);
         } catch (RuntimeException e) {
             e.printStackTrace();
             response.setStatus(403); //Forbidden
@@ -83,6 +130,25 @@ public class AppointmentController {
             final var requestDto = read(AppointmentCancelRequestDto.class, request);
             final var responseDto = service.cancel(requestDto, auth);
             write(responseDto, ContentTypes.APPLICATION_JSON, response);
+        } catch (ConflictException e) {
+            e.printStackTrace();
+            response.setStatus(409); //Conflict
+            write(new ErrorResponseDto(e.getMessage()), ContentTypes.APPLICATION_JSON, response);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            response.setStatus(403); //Forbidden
+            write(new ErrorResponseDto(e.getMessage()), ContentTypes.APPLICATION_JSON, response);
+        }
+    }
+
+    // empty body - the next free slot of any doctor
+    public void nextAvailable(HttpServletRequest request, HttpServletResponse response) {
+        try{
+            final var auth = HttpServletRequestAuthToken.auth(request);
+            final var requestDto = read(AppointmentNextAvailableRequestDto.class, request);
+            final var responseDto = service.nextAvailable(requestDto == null
+                    ? new AppointmentNextAvailableRequestDto(null, null, 0) : requestDto, auth);
+            write(responseDto, ContentTypes.APPLICATION_JSON, response);
         } catch (RuntimeException e) {
             e.printStackTrace();
             response.setStatus(403); //Forbidden
@@ -94,10 +160,18 @@ public class AppointmentController {
         try{
             final var auth = HttpServletRequestAuthToken.auth(request);
             final var requestDto = read(AppointmentFindRequestDto.class, request);
+            if (requestDto.isStream()) {
+                writeArray("appointments", (Consumer<Appointment> consumer) -> service.findAll(requestDto, auth, consumer), ContentTypes.APPLICATION_JSON, response);
+                return;
+            }
             final var responseDto = service.find(requestDto, auth);
             write(responseDto, ContentTypes.APPLICATION_JSON, response);
         } catch (RuntimeException e) {
             e.printStackTrace();
+            if (response.isCommitted()) {
+                return; // part of the stream is sent already, the client gets broken JSON
+            }
+            response.resetBuffer();
             response.setStatus(403); //Forbidden
             write(new ErrorResponseDto(e.getMessage()), ContentTypes.APPLICATION_JSON, response);
         }
@@ -144,4 +218,24 @@ public class AppointmentController {
         throw new RuntimeException("no converters support given content type");
     }
 
+    private <T> void writeArray(String name, Consumer<Consumer<T>> source, String contentType, HttpServletResponse response) {
+        for (final var converter : converters) {
+            if (!converter.canWrite(contentType, List.class)) {
+                continue;
+            }
+
+            try {
+                response.setContentType(contentType);
+                converter.writeArray(response.getWriter(), name, source);
+                return;
+            } catch (IOException e) {
+                e.printStackTrace();
+                // TODO: convert to special exception
+                throw new RuntimeException(e);
+            }
+        }
+        // TODO: convert to special exception
+        throw new RuntimeException("no converters support given content type");
+    }
+
 }
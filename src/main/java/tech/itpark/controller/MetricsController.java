@@ -0,0 +1,66 @@
+package tech.itpark.controller;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Controller;
+import tech.itpark.bodyconverter.BodyConverter;
+import tech.itpark.dto.ErrorResponseDto;
+import tech.itpark.exception.AuthErrorException;
+import tech.itpark.exception.PermissionDeniedException;
+import tech.itpark.http.ContentTypes;
+import tech.itpark.security.HttpServletRequestAuthToken;
+import tech.itpark.service.MetricsService;
+
+import java.io.IOException;
+import java.util.List;
+
+@Controller
+@RequiredArgsConstructor
+public class MetricsController {
+  private final MetricsService service;
+  private final List<BodyConverter> converters;
+
+  public void initParams(long connectionLeakThreshold) {
+    service.initParams(connectionLeakThreshold);
+  }
+
+  public void getMetrics(HttpServletRequest request, HttpServletResponse response) {
+    try {
+      final var auth = HttpServletRequestAuthToken.auth(request);
+      final var responseDto = service.getMetrics(auth);
+      write(responseDto, ContentTypes.APPLICATION_JSON, response);
+    } catch (PermissionDeniedException e) {
+      e.printStackTrace();
+      response.setStatus(403); //Forbidden
+      write(new ErrorResponseDto(e.getMessage()), ContentTypes.APPLICATION_JSON, response);
+    } catch (AuthErrorException e) {
+      e.printStackTrace();
+      response.setStatus(401); //Unauthorized
+      write(new ErrorResponseDto(e.getMessage()), ContentTypes.APPLICATION_JSON, response);
+    } catch (RuntimeException e) {
+      e.printStackTrace();
+      response.setStatus(520); //Unknown Error
+      write(new ErrorResponseDto(e.getMessage()), ContentTypes.APPLICATION_JSON, response);
+    }
+  }
+
+  private void write(Object data, String contentType, HttpServletResponse response) {
+    for (final var converter : converters) {
+      if (!converter.canWrite(contentType, data.getClass())) {
+        continue;
+      }
+      try {
+        response.setContentType(contentType);
+        converter.write(response.getWriter(), data);
+        return;
+      } catch (IOException e) {
+        e.printStackTrace();
+        // TODO: convert to special exception
+        throw new RuntimeException(e);
+      }
+    }
+    // TODO: convert to special exception
+    throw new RuntimeException("no converters support given content type");
+  }
+}
@@ -5,7 +5,6 @@ import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Controller;
 import tech.itpark.bodyconverter.BodyConverter;
-import tech.itpark.configuration.AppParams;
 import tech.itpark.dto.*;
 import tech.itpark.exception.AuthErrorException;
 import tech.itpark.exception.BadRequestException;
@@ -34,8 +33,8 @@ public class RolePermissionController {
         return service.initRolePermissions();
     }
 
-    private void updateServletPermissions(HttpServletRequest request){
-        request.getServletContext().setAttribute("PERMISSIONS", initRolePermissions());
+    public void refreshAccessControl() {
+        service.refreshAccessControl();
     }
 
 /////////////////////////////////////////////////////////////////////////////////////////////////  P E R M I S S I O N S
@@ -78,7 +77,6 @@ public class RolePermissionController {
             final var requestDto = read(PermissionsAppendRemoveRequestDto.class, request);
             final var responseDto = service.appendPermissions(requestDto, auth);
             write(responseDto, ContentTypes.APPLICATION_JSON, response);
-            updateServletPermissions(request);
         } catch (PermissionDeniedException e){
             e.printStackTrace();
             response.setStatus(403); //Forbidden
@@ -107,7 +105,6 @@ public class RolePermissionController {
             final var requestDto = read(PermissionsAppendRemoveRequestDto.class, request);
             final var responseDto = service.removePermissions(requestDto, auth);
             write(responseDto, ContentTypes.APPLICATION_JSON, response);
-            updateServletPermissions(request);
         } catch (PermissionDeniedException e){
             e.printStackTrace();
             response.setStatus(403); //Forbidden
@@ -173,7 +170,6 @@ public class RolePermissionController {
             final var requestDto = read(RolesAppendRequestDto.class, request);
             final var responseDto = service.appendRole(requestDto, auth);
             write(responseDto, ContentTypes.APPLICATION_JSON, response);
-            AppParams.setRoleAttributes(initRoleAttributes());
         } catch (PermissionDeniedException e){
             e.printStackTrace();
             response.setStatus(403); //Forbidden
@@ -205,7 +201,6 @@ public class RolePermissionController {
             final var requestDto = read(RolesRemoveRequestDto.class, request);
             final var responseDto = service.removeRole(requestDto, auth);
             write(responseDto, ContentTypes.APPLICATION_JSON, response);
-            AppParams.setRoleAttributes(initRoleAttributes());
         } catch (PermissionDeniedException e){
             e.printStackTrace();
             response.setStatus(403); //Forbidden
@@ -7,6 +7,7 @@ import org.springframework.stereotype.Controller;
 import tech.itpark.bodyconverter.BodyConverter;
 import tech.itpark.dto.*;
 import tech.itpark.http.ContentTypes;
+import tech.itpark.model.User;
 import tech.itpark.security.HttpServletRequestAuthToken;
 import tech.itpark.service.UserService;
 
@@ -14,6 +15,9 @@ import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 @Controller
 @RequiredArgsConstructor
@@ -21,6 +25,10 @@ public class UserController {
   private final UserService service;
   private final List<BodyConverter> converters;
 
+  public void initParams(boolean signedTokens, long signedTokenTtl, boolean tokenDigestStorage, long tokenTtl, int tokenSweepChunk,
+                         int pageSize, int pageSizeMax) {
+    service.initParams(signedTokens, signedTokenTtl, tokenDigestStorage, tokenTtl, tokenSweepChunk, pageSize, pageSizeMax);
+  }
 
   public void register(HttpServletRequest request, HttpServletResponse response){
     try {
@@ -100,26 +108,31 @@ public class UserController {
   }
 
   public void findUsers(HttpServletRequest request, HttpServletResponse response) {
-    final var requestDto = read(UsersFindRequestDto.class, request);
-    final var responseDto = service.findUsers(requestDto);
-    write(responseDto, ContentTypes.APPLICATION_JSON, response);
+    find(request, response, service::findUsers, service::findUsers);
   }
 
   public void findUsers_Doctors(HttpServletRequest request, HttpServletResponse response) {
-    final var requestDto = read(UsersFindRequestDto.class, request);
-    final var responseDto = service.findUsers_Doctors(requestDto);
-    write(responseDto, ContentTypes.APPLICATION_JSON, response);
+    find(request, response, service::findUsers_Doctors, service::findUsers_Doctors);
   }
 
   public void findUsers_Patients(HttpServletRequest request, HttpServletResponse response) {
-    final var requestDto = read(UsersFindRequestDto.class, request);
-    final var responseDto = service.findUsers_Patients(requestDto);
-    write(responseDto, ContentTypes.APPLICATION_JSON, response);
+    find(request, response, service::findUsers_Patients, service::findUsers_Patients);
   }
 
   public void findUsers_Chiefs(HttpServletRequest request, HttpServletResponse response) {
+    find(request, response, service::findUsers_Chiefs, service::findUsers_Chiefs);
+  }
+
+  // stream = true: all users are written while they are read, otherwise one page
+  private void find(HttpServletRequest request, HttpServletResponse response,
+                    Function<UsersFindRequestDto, UsersByRolesResponseDto> page,
+                    BiConsumer<UsersFindRequestDto, Consumer<User>> stream) {
     final var requestDto = read(UsersFindRequestDto.class, request);
-    final var responseDto = service.findUsers_Chiefs(requestDto);
+    if (requestDto.isStream()) {
+      writeArray("users", (Consumer<User> consumer) -> stream.accept(requestDto, consumer), ContentTypes.APPLICATION_JSON, response);
+      return;
+    }
+    final var responseDto = page.apply(requestDto);
     write(responseDto, ContentTypes.APPLICATION_JSON, response);
   }
 
@@ -232,4 +245,23 @@ public class UserController {
     throw new RuntimeException("no converters support given content type");
   }
 
+  private <T> void writeArray(String name, Consumer<Consumer<T>> source, String contentType, HttpServletResponse response) {
+    for (final var converter : converters) {
+      if (!converter.canWrite(contentType, List.class)) {
+        continue;
+      }
+      try {
+        response.setContentType(contentType);
+        converter.writeArray(response.getWriter(), name, source);
+        return;
+      } catch (IOException e) {
+        e.printStackTrace();
+        // TODO: convert to special exception
+        throw new RuntimeException(e);
+      }
+    }
+    // TODO: convert to special exception
+    throw new RuntimeException("no converters support given content type");
+  }
+
 }
@@ -0,0 +1,93 @@
+package tech.itpark.crypto;
+
+import tech.itpark.model.SignedToken;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.Set;
+
+// token = base64url(userId:issuedAt:expiresAt:role1,role2:login:firstName:secondName:description) + "." +
+// base64url(HMAC-SHA256(payload)), text fields of the payload are base64url too (may contain the separator)
+public class SignedTokenCodec {
+  private static final String ALGORITHM = "HmacSHA256";
+  private static final String SEPARATOR = ":";
+
+  private final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+  private final Base64.Decoder decoder = Base64.getUrlDecoder();
+  private final ThreadLocal<Mac> mac;
+
+  // empty secret -> random key, tokens do not survive restart and are not shared between nodes
+  public SignedTokenCodec(String secret) {
+    final byte[] key;
+    if (secret == null || secret.isBlank()) {
+      key = new byte[32];
+      new SecureRandom().nextBytes(key);
+    } else {
+      key = secret.getBytes(StandardCharsets.UTF_8);
+    }
+    final var keySpec = new SecretKeySpec(key, ALGORITHM);
+    mac = ThreadLocal.withInitial(() -> {
+      try {
+        final var instance = Mac.getInstance(ALGORITHM);
+        instance.init(keySpec);
+        return instance;
+      } catch (GeneralSecurityException e) {
+        throw new RuntimeException(e);
+      }
+    });
+  }
+
+  public String encode(SignedToken token) {
+    final var payload = token.getUserId() + SEPARATOR + token.getIssuedAt() + SEPARATOR + token.getExpiresAt()
+        + SEPARATOR + String.join(",", token.getRoles())
+        + SEPARATOR + encodeText(token.getLogin()) + SEPARATOR + encodeText(token.getFirstName())
+        + SEPARATOR + encodeText(token.getSecondName()) + SEPARATOR + encodeText(token.getDescription());
+    final var payloadEncoded = encoder.encodeToString(payload.getBytes(StandardCharsets.UTF_8));
+    return payloadEncoded + "." + encoder.encodeToString(sign(payloadEncoded));
+  }
+
+  // signature and format only, expiry and revocation are checked by the caller
+  public Optional<SignedToken> decode(String token) {
+    if (token == null) {
+      return Optional.empty();
+    }
+    final var dot = token.indexOf('.');
+    if (dot <= 0 || dot != token.lastIndexOf('.')) {
+      return Optional.empty();
+    }
+    try {
+      final var payloadEncoded = token.substring(0, dot);
+      final var signature = decoder.decode(token.substring(dot + 1));
+      if (!MessageDigest.isEqual(signature, sign(payloadEncoded))) {
+        return Optional.empty();
+      }
+      final var parts = new String(decoder.decode(payloadEncoded), StandardCharsets.UTF_8).split(SEPARATOR, -1);
+      if (parts.length != 8) {
+        return Optional.empty();
+      }
+      final var roles = parts[3].isEmpty() ? Set.<String>of() : Set.of(parts[3].split(","));
+      return Optional.of(new SignedToken(Long.parseLong(parts[0]), roles, Long.parseLong(parts[1]), Long.parseLong(parts[2]),
+          decodeText(parts[4]), decodeText(parts[5]), decodeText(parts[6]), decodeText(parts[7])));
+    } catch (IllegalArgumentException e) { // bad base64 or numbers
+      return Optional.empty();
+    }
+  }
+
+  private String encodeText(String value) {
+    return encoder.encodeToString((value == null ? "" : value).getBytes(StandardCharsets.UTF_8));
+  }
+
+  private String decodeText(String encoded) {
+    return new String(decoder.decode(encoded), StandardCharsets.UTF_8);
+  }
+
+  private byte[] sign(String payloadEncoded) {
+    return mac.get().doFinal(payloadEncoded.getBytes(StandardCharsets.US_ASCII));
+  }
+}
@@ -0,0 +1,18 @@
+package tech.itpark.crypto;
+
+import lombok.RequiredArgsConstructor;
+import tech.itpark.model.SignedToken;
+import tech.itpark.model.User;
+
+// auth_mode=signed: the token carries the user, roles and profile, no database lookup
+@RequiredArgsConstructor
+public class SignedTokenGenerator {
+  private final SignedTokenCodec codec;
+  private final long ttlSeconds;
+
+  public String generate(User user) {
+    final var now = System.currentTimeMillis();
+    return codec.encode(new SignedToken(user.getId(), user.getRoles(), now, now + ttlSeconds * 1000,
+        user.getLogin(), user.getFirstName(), user.getSecondName(), user.getDescription()));
+  }
+}
@@ -0,0 +1,18 @@
+package tech.itpark.crypto;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+
+// issue time and 208 random bits, base64url -> 43 chars instead of 256 hex chars
+public class TokenGeneratorCompactImpl implements TokenGenerator {
+  private final SecureRandom random = new SecureRandom();
+  private final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+
+  @Override
+  public String generate() {
+    final var bytes = new byte[32];
+    random.nextBytes(bytes);
+    TokenTime.stamp(bytes, System.currentTimeMillis());
+    return encoder.encodeToString(bytes);
+  }
+}
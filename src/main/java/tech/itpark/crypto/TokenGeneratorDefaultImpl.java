@@ -9,6 +9,7 @@ public class TokenGeneratorDefaultImpl implements TokenGenerator {
   public String generate() {
     final var bytes = new byte[128];
     random.nextBytes(bytes);
+    TokenTime.stamp(bytes, System.currentTimeMillis());
     return Hex.encode(bytes);
   }
 }
@@ -0,0 +1,38 @@
+package tech.itpark.crypto;
+
+import java.util.Base64;
+
+// issue time (epoch millis, 48 bits) in the first 6 bytes of a random token, so it can be read back from the token
+// text: a node tells tokens issued after it last read the tokens table (see TokenFilter)
+public class TokenTime {
+  static final int BYTES = 6;
+
+  private TokenTime() {
+  }
+
+  static void stamp(byte[] bytes, long millis) {
+    for (int i = 0; i < BYTES; i++) {
+      bytes[i] = (byte) (millis >>> (8 * (BYTES - 1 - i)));
+    }
+  }
+
+  // -1 - not a token of TokenGeneratorCompactImpl (43 chars) or TokenGeneratorDefaultImpl (256 chars)
+  public static long issuedAt(String token) {
+    try {
+      if (token.length() == 43) {
+        final var bytes = Base64.getUrlDecoder().decode(token.substring(0, 8)); // 8 chars -> 6 bytes
+        var millis = 0L;
+        for (byte b : bytes) {
+          millis = millis << 8 | (b & 0xff);
+        }
+        return millis;
+      }
+      if (token.length() == 256) {
+        return Long.parseLong(token.substring(0, 2 * BYTES), 16);
+      }
+    } catch (IllegalArgumentException e) { // bad base64 or hex
+      return -1;
+    }
+    return -1;
+  }
+}
@@ -14,4 +14,7 @@ public class AppointmentFindRequestDto {
     Set<Integer> statuses;
     boolean own;
     boolean available;
+    String cursor; // next of the previous page, null - first page
+    int limit;     // page size, 0 - default
+    boolean stream; // all rows written while they are read, cursor and limit are ignored
 }
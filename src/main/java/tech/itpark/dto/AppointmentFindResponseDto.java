@@ -7,4 +7,5 @@ import java.util.List;
 
 @Value public class AppointmentFindResponseDto {
     List<Appointment> appointments;
+    String next; // cursor of the next page, null - last page
 }
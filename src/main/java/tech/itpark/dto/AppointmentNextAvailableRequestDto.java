@@ -0,0 +1,13 @@
+package tech.itpark.dto;
+
+import lombok.Value;
+
+import java.sql.Timestamp;
+import java.util.Set;
+
+@Value
+public class AppointmentNextAvailableRequestDto {
+    Timestamp after;    // null - from now on
+    Set<Long> doctorIds; // empty or null - any doctor
+    int limit;          // number of slots, 0 - one
+}
@@ -0,0 +1,10 @@
+package tech.itpark.dto;
+
+import lombok.Value;
+import tech.itpark.model.Appointment;
+
+import java.util.List;
+
+@Value public class AppointmentNextAvailableResponseDto {
+    List<Appointment> appointments; // earliest first, empty - nothing free in the booking window
+}
@@ -0,0 +1,11 @@
+package tech.itpark.dto;
+
+import lombok.Value;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+@Value
+public class AppointmentOpenBulkRequestDto {
+    List<Timestamp> date_times;
+}
@@ -0,0 +1,11 @@
+package tech.itpark.dto;
+
+import lombok.Value;
+import tech.itpark.model.OpenSlotResult;
+
+import java.util.List;
+
+@Value
+public class AppointmentOpenBulkResponseDto {
+    List<OpenSlotResult> slots; // in request order
+}
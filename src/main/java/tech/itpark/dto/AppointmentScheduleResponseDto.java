@@ -0,0 +1,11 @@
+package tech.itpark.dto;
+
+import lombok.Value;
+import tech.itpark.model.ScheduleTemplate;
+
+import java.util.List;
+
+@Value
+public class AppointmentScheduleResponseDto {
+    List<ScheduleTemplate> templates;
+}
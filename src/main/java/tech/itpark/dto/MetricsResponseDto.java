@@ -0,0 +1,19 @@
+package tech.itpark.dto;
+
+import lombok.Value;
+
+import java.util.Map;
+
+@Value
+public class MetricsResponseDto {
+  Map<String, Number> connections;
+  Map<String, Long> connectionSites;
+  Map<String, Number> statements;
+  Map<String, Double> slowestStatements;
+  Map<String, Number> authCache;
+  Map<String, Number> tokenFilter;
+  Map<String, Number> sessions;
+  Map<String, Number> openSlots;
+  Map<String, Number> availableSlots;
+  Map<String, Number> userDirectory;
+}
@@ -5,4 +5,5 @@ import lombok.Value;
 @Value
 public class UserInfoResponseDto {
   long id;
+  String token; // auth_mode=signed only: the token to use from now on, the previous one is revoked
 }
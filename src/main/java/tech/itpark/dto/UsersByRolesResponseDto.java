@@ -9,4 +9,5 @@ import java.util.Set;
 @Value
 public class UsersByRolesResponseDto {
   List<User> users;
+  String next; // cursor of the next page of findUsers, null - last page
 }
@@ -8,4 +8,7 @@ import java.util.Set;
 public class UsersFindRequestDto {
   Set<String> roles;
   Set<String> info;
+  String cursor; // next of the previous page, null - first page
+  int limit;     // page size, 0 - default
+  boolean stream; // all rows written while they are read, cursor and limit are ignored
 }
@@ -9,46 +9,54 @@ import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.context.ApplicationContext;
 import tech.itpark.exception.PermissionDeniedException;
 import tech.itpark.http.ContentTypes;
-import tech.itpark.security.Auth;
+import tech.itpark.security.AccessControl;
 import tech.itpark.security.AuthProvider;
 
 import java.io.IOException;
 import java.util.Map;
-import java.util.Set;
 
 public class AuthFilter extends HttpFilter {
-//  private AuthProvider provider;
-//  @Override
-//  public void init() throws ServletException {
-//    final var context = (ApplicationContext) getServletContext().getAttribute("CONTEXT");
-//    provider = context.getBean(AuthProvider.class);
-//  }
+  // filter is initialized before MainServlet puts CONTEXT, so provider is resolved on first request
+  private volatile AuthProvider provider;
+  private volatile AccessControl accessControl;
+
   private void sendError(int StatusCode, String message, HttpServletResponse response) throws IOException {
     response.setStatus(StatusCode);
     response.setContentType(ContentTypes.APPLICATION_JSON);
     response.getWriter().write((new Gson()).toJson( Map.of("message", message)));
   }
 
+  private AuthProvider provider() {
+    var result = provider;
+    if (result == null) {
+      final var context = (ApplicationContext) getServletContext().getAttribute("CONTEXT");
+      result = provider = context.getBean(AuthProvider.class);
+    }
+    return result;
+  }
+
+  private AccessControl accessControl() {
+    var result = accessControl;
+    if (result == null) {
+      final var context = (ApplicationContext) getServletContext().getAttribute("CONTEXT");
+      result = accessControl = context.getBean(AccessControl.class);
+    }
+    return result;
+  }
+
   @Override
   protected void doFilter(HttpServletRequest req, HttpServletResponse res, FilterChain chain) throws IOException, ServletException {
     final var token = req.getHeader("Authorization");
     req.setAttribute("TOKEN", token);
 
-    final var context = (ApplicationContext) getServletContext().getAttribute("CONTEXT");
-    AuthProvider provider = context.getBean(AuthProvider.class);
-
-    final var auth = provider.provide(token);
+    final var auth = provider().provide(token);
     req.setAttribute("AUTH", auth);
 
     final var servletPath = req.getServletPath();
-    final var rolePermissions = (Map<String, Set<String>>) getServletContext().getAttribute("PERMISSIONS");
 
     try{
-        if (rolePermissions.containsKey(servletPath)) {
-          final var roles = rolePermissions.get(servletPath).toArray(String[]::new);
-          if (!auth.hasAnyRole(roles)) {
-            throw new PermissionDeniedException("FORBIDDEN!!! Not allowed operation.");
-          }
+        if (!accessControl().allows(servletPath, auth)) {
+          throw new PermissionDeniedException("FORBIDDEN!!! Not allowed operation.");
         }
     }catch (PermissionDeniedException e){
       e.printStackTrace();
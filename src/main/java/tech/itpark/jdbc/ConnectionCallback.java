@@ -0,0 +1,9 @@
+package tech.itpark.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+@FunctionalInterface
+public interface ConnectionCallback<T> {
+  T doInConnection(Connection connection) throws SQLException;
+}
@@ -0,0 +1,83 @@
+package tech.itpark.jdbc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// SELECT with optional WHERE predicates: only the present ones are emitted, so every combination of filters gets
+// its own plan; the SQL text depends only on which predicates are present (the shape) and is built once per shape,
+// equal texts let the driver reuse its server-side prepared statements
+public class DynamicQuery {
+  private final String select;
+  private final List<String> predicates;
+  private final String suffix;
+  private final Map<Integer, String> sqlByShape = new ConcurrentHashMap<>();
+
+  public DynamicQuery(String select, List<String> predicates, String suffix) {
+    if (predicates.size() > Integer.SIZE) {
+      throw new IllegalArgumentException("too many predicates");
+    }
+    this.select = select;
+    this.predicates = List.copyOf(predicates);
+    this.suffix = suffix;
+  }
+
+  // params are the ones of the select part
+  public Where where(Object... selectParams) {
+    return new Where(selectParams);
+  }
+
+  String sql(int shape) {
+    return sqlByShape.computeIfAbsent(shape, s -> {
+      final var result = new StringBuilder(select);
+      var first = true;
+      for (int i = 0; i < predicates.size(); i++) {
+        if ((s & (1 << i)) == 0) {
+          continue;
+        }
+        result.append(first ? "\nWHERE " : "\n  AND ").append(predicates.get(i));
+        first = false;
+      }
+      return result.append('\n').append(suffix).toString();
+    });
+  }
+
+  // call and(...) once per predicate, in the order they were given to the query
+  public class Where {
+    private final List<Object> params;
+    private int index;
+    private int shape;
+
+    private Where(Object... selectParams) {
+      params = new ArrayList<>(Arrays.asList(selectParams));
+    }
+
+    public Where and(boolean present, Object... predicateParams) {
+      if (index >= predicates.size()) {
+        throw new IllegalStateException("more predicates than declared");
+      }
+      if (present) {
+        shape |= 1 << index;
+        params.addAll(Arrays.asList(predicateParams));
+      }
+      index++;
+      return this;
+    }
+
+    public String sql() {
+      if (index != predicates.size()) {
+        throw new IllegalStateException("not all predicates were given");
+      }
+      return DynamicQuery.this.sql(shape);
+    }
+
+    // suffixParams are the ones of the suffix part (ORDER BY/LIMIT)
+    public Object[] params(Object... suffixParams) {
+      final var result = new ArrayList<>(params);
+      result.addAll(Arrays.asList(suffixParams));
+      return result.toArray();
+    }
+  }
+}
@@ -2,22 +2,230 @@ package tech.itpark.jdbc;
 
 import tech.itpark.exception.DataAccessException;
 
+import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
 
+// every method borrows a connection and returns it before exiting, the Connection overloads are for transactions
 public class JdbcTemplate {
+  private final DataSource dataSource;
+  private final int fetchSize;
+  private final StatementListener listener;
+
+  public JdbcTemplate(DataSource dataSource, int fetchSize, StatementListener listener) {
+    this.dataSource = dataSource;
+    this.fetchSize = fetchSize;
+    this.listener = listener;
+  }
+
+  // TEXT[], BIGINT[], ... parameter, created on the statement's connection
+  public static SqlArray array(String type, Collection<?> values) {
+    return new SqlArray(type, values.toArray());
+  }
+
+  public <T> T execute(ConnectionCallback<T> callback) {
+    try (
+        final var conn = dataSource.getConnection();
+    ) {
+      return callback.doInConnection(conn);
+    } catch (SQLException e) {
+      throw new DataAccessException(e);
+    }
+  }
+
+  // commits if callback returns normally, rolls back on any exception
+  public <T> T transaction(ConnectionCallback<T> callback) {
+    return execute(conn -> {
+      conn.setAutoCommit(false);
+      try {
+        final var result = callback.doInConnection(conn);
+        conn.commit();
+        return result;
+      } catch (SQLException | RuntimeException e) {
+        conn.rollback();
+        throw e;
+      } finally {
+        conn.setAutoCommit(true);
+      }
+    });
+  }
+
+  public <T> List<T> query(String sql, RowMapper<T> mapper, Object... params) {
+    return execute(conn -> query(conn, sql, mapper, params));
+  }
+
+  public <T> List<T> query(Connection conn, String sql, RowMapper<T> mapper, Object... params) {
+    final var result = new ArrayList<T>();
+    forEach(conn, sql, mapper, result::add, params);
+    return result;
+  }
+
+  public <T> Optional<T> queryForOptional(String sql, RowMapper<T> mapper, Object... params) {
+    return execute(conn -> queryForOptional(conn, sql, mapper, params));
+  }
+
+  public <T> Optional<T> queryForOptional(Connection conn, String sql, RowMapper<T> mapper, Object... params) {
+    final var start = System.nanoTime();
+    var failed = true;
+    try (
+        final var stmt = prepare(conn, sql, params);
+    ) {
+      stmt.setMaxRows(1);
+      try (
+          final var rs = stmt.executeQuery();
+      ) {
+        final var result = rs.next() ? Optional.of(mapper.columns(rs).read(rs)) : Optional.<T>empty();
+        failed = false;
+        return result;
+      }
+    } catch (SQLException e) {
+      throw new DataAccessException(e);
+    } finally {
+      listener.executed(sql, System.nanoTime() - start, failed);
+    }
+  }
+
+  // rows are read with fetchSize in a read-only transaction (server-side cursor), nothing is collected in memory
+  public <T> void queryForEach(String sql, RowMapper<T> mapper, Consumer<T> consumer, Object... params) {
+    execute(conn -> {
+      conn.setAutoCommit(false);
+      conn.setReadOnly(true);
+      try {
+        forEach(conn, sql, mapper, consumer, params);
+        return null;
+      } finally {
+        conn.rollback();
+        conn.setReadOnly(false);
+        conn.setAutoCommit(true);
+      }
+    });
+  }
+
+  public int update(String sql, Object... params) {
+    return execute(conn -> update(conn, sql, params));
+  }
+
   public int update(Connection conn, String sql, Object... params) {
+    final var start = System.nanoTime();
+    var failed = true;
+    try (
+        final var stmt = prepare(conn, sql, params);
+    ) {
+      final var result = stmt.executeUpdate();
+      failed = false;
+      return result;
+    } catch (SQLException e) {
+      throw new DataAccessException(e);
+    } finally {
+      listener.executed(sql, System.nanoTime() - start, failed);
+    }
+  }
+
+  // several ;-separated statements without parameters (simple query protocol)
+  public void executeScript(Connection conn, String script) {
+    final var start = System.nanoTime();
+    var failed = true;
+    try (
+        final var stmt = conn.createStatement();
+    ) {
+      stmt.execute(script);
+      failed = false;
+    } catch (SQLException e) {
+      throw new DataAccessException(e);
+    } finally {
+      listener.executed(script, System.nanoTime() - start, failed);
+    }
+  }
+
+  // one round trip for all rows of params
+  public int[] batchUpdate(String sql, Collection<Object[]> batchParams) {
+    if (batchParams.isEmpty()) {
+      return new int[0];
+    }
+    return execute(conn -> batchUpdate(conn, sql, batchParams));
+  }
+
+  public int[] batchUpdate(Connection conn, String sql, Collection<Object[]> batchParams) {
+    final var start = System.nanoTime();
+    var failed = true;
     try (
         final var stmt = conn.prepareStatement(sql);
     ) {
-      var index = 0;
-      for (Object param : params) {
-        stmt.setObject(++index, param);
+      for (Object[] params : batchParams) {
+        bind(conn, stmt, params);
+        stmt.addBatch();
+      }
+      final var result = stmt.executeBatch();
+      failed = false;
+      return result;
+    } catch (SQLException e) {
+      throw new DataAccessException(e);
+    } finally {
+      listener.executed(sql, System.nanoTime() - start, failed);
+    }
+  }
+
+  private <T> void forEach(Connection conn, String sql, RowMapper<T> mapper, Consumer<T> consumer, Object... params) {
+    final var start = System.nanoTime();
+    var failed = true;
+    try (
+        final var stmt = prepare(conn, sql, params);
+    ) {
+      stmt.setFetchSize(fetchSize);
+      try (
+          final var rs = stmt.executeQuery();
+      ) {
+        if (rs.next()) {
+          final var reader = mapper.columns(rs);
+          do {
+            consumer.accept(reader.read(rs));
+          } while (rs.next());
+        }
+        failed = false;
       }
-      return stmt.executeUpdate();
     } catch (SQLException e) {
       throw new DataAccessException(e);
+    } finally {
+      listener.executed(sql, System.nanoTime() - start, failed);
+    }
+  }
+
+  private PreparedStatement prepare(Connection conn, String sql, Object... params) throws SQLException {
+    final var stmt = conn.prepareStatement(sql);
+    try {
+      bind(conn, stmt, params);
+      return stmt;
+    } catch (SQLException | RuntimeException e) {
+      stmt.close();
+      throw e;
+    }
+  }
+
+  private void bind(Connection conn, PreparedStatement stmt, Object... params) throws SQLException {
+    var index = 0;
+    for (Object param : params) {
+      if (param instanceof SqlArray) {
+        final var array = (SqlArray) param;
+        stmt.setArray(++index, conn.createArrayOf(array.type, array.values));
+      } else {
+        stmt.setObject(++index, param);
+      }
+    }
+  }
+
+  public static class SqlArray {
+    private final String type;
+    private final Object[] values;
+
+    private SqlArray(String type, Object[] values) {
+      this.type = type;
+      this.values = values;
     }
   }
 }
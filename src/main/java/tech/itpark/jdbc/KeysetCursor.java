@@ -0,0 +1,53 @@
+package tech.itpark.jdbc;
+
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.util.Base64;
+
+// opaque continuation token of a keyset page: the sort key of the last returned row, base64url encoded;
+// the next page is "WHERE key > cursor ORDER BY key LIMIT pageSize", no OFFSET scan
+public class KeysetCursor {
+  private KeysetCursor() {
+  }
+
+  public static String encode(long... keys) {
+    final var buffer = ByteBuffer.allocate(keys.length * Long.BYTES);
+    for (long key : keys) {
+      buffer.putLong(key);
+    }
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+  }
+
+  public static long[] decode(String cursor, int keys) {
+    try {
+      final var bytes = Base64.getUrlDecoder().decode(cursor);
+      if (bytes.length != keys * Long.BYTES) {
+        throw new RuntimeException("WRONG CURSOR !!!");
+      }
+      final var buffer = ByteBuffer.wrap(bytes);
+      final var result = new long[keys];
+      for (int i = 0; i < keys; i++) {
+        result[i] = buffer.getLong();
+      }
+      return result;
+    } catch (IllegalArgumentException e) {
+      throw new RuntimeException("WRONG CURSOR !!!", e);
+    }
+  }
+
+  // TIMESTAMP keeps microseconds, millis would skip or repeat rows at the page boundary
+  public static long micros(Timestamp timestamp) {
+    return Math.floorDiv(timestamp.getTime(), 1000) * 1_000_000 + timestamp.getNanos() / 1000;
+  }
+
+  public static Timestamp timestamp(long micros) {
+    final var result = new Timestamp(Math.floorDiv(micros, 1_000_000) * 1000);
+    result.setNanos((int) Math.floorMod(micros, 1_000_000) * 1000);
+    return result;
+  }
+
+  // 0 or less - default size, never more than max
+  public static int pageSize(int requested, int defaultSize, int maxSize) {
+    return requested <= 0 ? defaultSize : Math.min(requested, maxSize);
+  }
+}
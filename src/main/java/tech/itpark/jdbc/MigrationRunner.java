@@ -0,0 +1,153 @@
+package tech.itpark.jdbc;
+
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import tech.itpark.crypto.Hex;
+import tech.itpark.exception.InitializationException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// applies classpath db/migration/V<version>__<description>.sql in version order, each in its own transaction;
+// applied versions and their checksums are kept in schema_migrations, an edited applied migration stops startup;
+// ${name} in a script is replaced by the placeholder value when applied (the checksum is of the script as written)
+public class MigrationRunner {
+  private static final Pattern NAME = Pattern.compile("V(\\d+)__(.+)\\.sql");
+  private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{([a-z_]+)}");
+  private static final long LOCK_KEY = 0x6170706f696e74L; // one node migrates at a time
+
+  private final JdbcTemplate template;
+  private final String location;
+  private final Map<String, String> placeholders;
+
+  public MigrationRunner(JdbcTemplate template, String location, Map<String, String> placeholders) {
+    this.template = template;
+    this.location = location;
+    this.placeholders = Map.copyOf(placeholders);
+  }
+
+  public void migrate() {
+    final var migrations = load();
+    template.execute(conn -> {
+      template.queryForOptional(conn, "SELECT pg_advisory_lock(?)", resultSet -> rs -> true, LOCK_KEY);
+      try {
+        // language=PostgreSQL
+        template.update(conn, """
+            CREATE TABLE IF NOT EXISTS schema_migrations (
+                version INTEGER PRIMARY KEY,
+                description TEXT NOT NULL,
+                checksum TEXT NOT NULL,
+                applied_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+            )
+            """);
+        final var applied = new HashMap<Integer, String>();
+        template.query(conn, "SELECT version, checksum FROM schema_migrations", resultSet -> rs -> Map.entry(rs.getInt(1), rs.getString(2)))
+            .forEach(entry -> applied.put(entry.getKey(), entry.getValue()));
+
+        for (Migration migration : migrations) {
+          final var checksum = applied.get(migration.version);
+          if (checksum == null) {
+            apply(conn, migration);
+          } else if (!checksum.equals(migration.checksum)) {
+            throw new InitializationException("Migration " + migration.name + " was changed after it had been applied !!!");
+          }
+        }
+        return null;
+      } finally {
+        template.queryForOptional(conn, "SELECT pg_advisory_unlock(?)", resultSet -> rs -> true, LOCK_KEY);
+      }
+    });
+  }
+
+  private void apply(Connection conn, Migration migration) throws SQLException {
+    conn.setAutoCommit(false);
+    try {
+      template.executeScript(conn, substitute(migration));
+      // language=PostgreSQL
+      template.update(conn, "INSERT INTO schema_migrations(version, description, checksum) VALUES (?, ?, ?)",
+          migration.version, migration.description, migration.checksum);
+      conn.commit();
+    } catch (RuntimeException e) {
+      conn.rollback();
+      throw new InitializationException("Migration " + migration.name + " failed !!!", e);
+    } finally {
+      conn.setAutoCommit(true);
+    }
+  }
+
+  private List<Migration> load() {
+    try {
+      final var result = new ArrayList<Migration>();
+      final var versions = new HashMap<Integer, String>();
+      for (Resource resource : new PathMatchingResourcePatternResolver().getResources(location + "/V*.sql")) {
+        final var name = resource.getFilename();
+        final var matcher = NAME.matcher(name == null ? "" : name);
+        if (!matcher.matches()) {
+          throw new InitializationException("Wrong migration name: " + name + " !!!");
+        }
+        final var version = Integer.parseInt(matcher.group(1));
+        final var duplicate = versions.put(version, name);
+        if (duplicate != null) {
+          throw new InitializationException("Migrations " + duplicate + " and " + name + " have the same version !!!");
+        }
+        final String script;
+        try (final var in = resource.getInputStream()) {
+          script = new String(in.readAllBytes(), StandardCharsets.UTF_8).replace("\r\n", "\n");
+        }
+        result.add(new Migration(version, matcher.group(2).replace('_', ' '), name, script, checksum(script)));
+      }
+      result.sort(Comparator.comparingInt(migration -> migration.version));
+      return result;
+    } catch (IOException e) {
+      throw new InitializationException("Can't read migrations from " + location + " !!!", e);
+    }
+  }
+
+  private String substitute(Migration migration) {
+    final var matcher = PLACEHOLDER.matcher(migration.script);
+    final var result = new StringBuilder();
+    while (matcher.find()) {
+      final var value = placeholders.get(matcher.group(1));
+      if (value == null) {
+        throw new InitializationException("Migration " + migration.name + " uses unknown placeholder " + matcher.group() + " !!!");
+      }
+      matcher.appendReplacement(result, Matcher.quoteReplacement(value));
+    }
+    return matcher.appendTail(result).toString();
+  }
+
+  private static String checksum(String script) {
+    try {
+      return Hex.encode(MessageDigest.getInstance("SHA-256").digest(script.getBytes(StandardCharsets.UTF_8)));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static class Migration {
+    private final int version;
+    private final String description;
+    private final String name;
+    private final String script;
+    private final String checksum;
+
+    private Migration(int version, String description, String name, String script, String checksum) {
+      this.version = version;
+      this.description = description;
+      this.name = name;
+      this.script = script;
+      this.checksum = checksum;
+    }
+  }
+}
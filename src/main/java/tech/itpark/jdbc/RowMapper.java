@@ -0,0 +1,22 @@
+package tech.itpark.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+// called once per ResultSet: resolve column indexes there, the returned reader is applied to every row
+@FunctionalInterface
+public interface RowMapper<T> {
+  RowReader<T> columns(ResultSet resultSet) throws SQLException;
+
+  @FunctionalInterface
+  interface RowReader<T> {
+    T read(ResultSet resultSet) throws SQLException;
+  }
+
+  static RowMapper<Long> longColumn(String column) {
+    return resultSet -> {
+      final var index = resultSet.findColumn(column);
+      return rs -> rs.getLong(index);
+    };
+  }
+}
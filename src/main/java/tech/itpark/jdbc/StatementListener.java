@@ -0,0 +1,7 @@
+package tech.itpark.jdbc;
+
+// notified after every statement executed through JdbcTemplate
+@FunctionalInterface
+public interface StatementListener {
+  void executed(String sql, long elapsedNanos, boolean failed);
+}
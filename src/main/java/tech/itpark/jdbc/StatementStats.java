@@ -0,0 +1,60 @@
+package tech.itpark.jdbc;
+
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// per-statement execution counters, statements are keyed by their SQL text
+public class StatementStats implements StatementListener {
+  private final long slowNanos;
+  private final Map<String, Stat> stats = new ConcurrentHashMap<>();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder slow = new LongAdder();
+
+  public StatementStats(long slowMillis) {
+    this.slowNanos = slowMillis * 1_000_000;
+  }
+
+  @Override
+  public void executed(String sql, long elapsedNanos, boolean failed) {
+    final var stat = stats.computeIfAbsent(sql, s -> new Stat());
+    stat.count.increment();
+    stat.totalNanos.add(elapsedNanos);
+    stat.maxNanos.accumulate(elapsedNanos);
+    if (failed) {
+      this.failed.increment();
+    }
+    if (elapsedNanos >= slowNanos) {
+      slow.increment();
+    }
+  }
+
+  public Map<String, Number> getMetrics() {
+    return Map.of(
+        "statements", stats.values().stream().mapToLong(stat -> stat.count.sum()).sum(),
+        "totalMillis", stats.values().stream().mapToLong(stat -> stat.totalNanos.sum()).sum() / 1_000_000.0,
+        "distinct", stats.size(),
+        "failed", failed.sum(),
+        "slow", slow.sum()
+    );
+  }
+
+  // statement (first line of SQL) -> max execution time in millis, slowest first
+  public Map<String, Double> getSlowest(int limit) {
+    final var result = new LinkedHashMap<String, Double>();
+    stats.entrySet().stream()
+        .sorted(Comparator.comparingLong((Map.Entry<String, Stat> entry) -> entry.getValue().maxNanos.get()).reversed())
+        .limit(limit)
+        .forEach(entry -> result.merge(entry.getKey().strip().lines().findFirst().orElse(""), entry.getValue().maxNanos.get() / 1_000_000.0, Math::max));
+    return result;
+  }
+
+  private static class Stat {
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+  }
+}
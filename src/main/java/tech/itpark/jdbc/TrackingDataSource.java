@@ -0,0 +1,200 @@
+package tech.itpark.jdbc;
+
+import tech.itpark.exception.DataAccessException;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+// wraps the pool: every borrowed connection is registered (with its borrow site, if sampled) until close()
+public class TrackingDataSource implements DataSource {
+  private static final StackWalker WALKER = StackWalker.getInstance();
+  private static final String JDBC_PACKAGE = TrackingDataSource.class.getPackageName() + ".";
+  private static final StackTraceElement[] NO_SITE = new StackTraceElement[0];
+
+  private final DataSource delegate;
+  private final int poolSize;
+  private final int siteSampling;
+  private final Map<Long, Borrow> outstanding = new ConcurrentHashMap<>();
+  private final AtomicLong sequence = new AtomicLong();
+
+  private final LongAdder borrowed = new LongAdder();
+  private final LongAdder holdNanos = new LongAdder();
+  private final LongAccumulator maxHoldNanos = new LongAccumulator(Math::max, 0);
+  private final LongAccumulator peakOutstanding = new LongAccumulator(Math::max, 0);
+  private final LongAdder leaks = new LongAdder();
+
+  // poolSize - maxTotal of the container pool, used for utilisation only;
+  // siteSampling - borrow site of every n-th connection is captured (stack walk), 1 - every one, 0 - none
+  public TrackingDataSource(DataSource delegate, int poolSize, int siteSampling) {
+    this.delegate = delegate;
+    this.poolSize = poolSize;
+    this.siteSampling = siteSampling;
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    return track(delegate.getConnection());
+  }
+
+  @Override
+  public Connection getConnection(String username, String password) throws SQLException {
+    return track(delegate.getConnection(username, password));
+  }
+
+  // connections held longer than threshold, each reported once
+  public List<DataAccessException> detectLeaks(long thresholdMillis) {
+    final var now = System.nanoTime();
+    final var result = new ArrayList<DataAccessException>();
+    for (final var borrow : outstanding.values()) {
+      final var heldMillis = (now - borrow.borrowedAt) / 1_000_000;
+      if (heldMillis >= thresholdMillis && borrow.reported.compareAndSet(false, true)) {
+        leaks.increment();
+        final var leak = new DataAccessException("Connection held for " + heldMillis + " ms by thread '" + borrow.thread + "', possible leak !!!");
+        leak.setStackTrace(borrow.site);
+        result.add(leak);
+      }
+    }
+    return result;
+  }
+
+  public Map<String, Number> getMetrics() {
+    final var count = borrowed.sum();
+    final var active = outstanding.size();
+    return Map.of(
+        "poolSize", poolSize,
+        "active", active,
+        "peakActive", peakOutstanding.get(),
+        "utilisation", poolSize > 0 ? (double) active / poolSize : 0.0,
+        "borrowed", count,
+        "avgHoldMillis", count > 0 ? holdNanos.sum() / count / 1_000_000.0 : 0.0,
+        "maxHoldMillis", maxHoldNanos.get() / 1_000_000.0,
+        "leaks", leaks.sum()
+    );
+  }
+
+  // borrow site -> connections currently held from it
+  public Map<String, Long> getOutstandingSites() {
+    return outstanding.values().stream()
+        .collect(Collectors.groupingBy(borrow -> borrow.site.length > 0 ? borrow.site[0].toString() : "unknown", Collectors.counting()));
+  }
+
+  private Connection track(Connection connection) {
+    final var id = sequence.incrementAndGet();
+    final var site = siteSampling > 0 && id % siteSampling == 0 ? borrowSite() : NO_SITE;
+    final var borrow = new Borrow(site, Thread.currentThread().getName(), System.nanoTime());
+    outstanding.put(id, borrow);
+    borrowed.increment();
+    peakOutstanding.accumulate(outstanding.size());
+    return (Connection) Proxy.newProxyInstance(
+        Connection.class.getClassLoader(),
+        new Class<?>[]{Connection.class},
+        new Handler(connection, id)
+    );
+  }
+
+  private void release(long id) {
+    final var borrow = outstanding.remove(id);
+    if (borrow == null) {
+      return; // closed twice
+    }
+    final var held = System.nanoTime() - borrow.borrowedAt;
+    holdNanos.add(held);
+    maxHoldNanos.accumulate(held);
+  }
+
+  // caller frames without this package, so the first element points at the repository method
+  private static StackTraceElement[] borrowSite() {
+    return WALKER.walk(frames -> frames
+        .dropWhile(frame -> frame.getClassName().startsWith(JDBC_PACKAGE))
+        .limit(16)
+        .map(StackWalker.StackFrame::toStackTraceElement)
+        .toArray(StackTraceElement[]::new));
+  }
+
+  private class Handler implements InvocationHandler {
+    private final Connection target;
+    private final long id;
+
+    private Handler(Connection target, long id) {
+      this.target = target;
+      this.id = id;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      if ("close".equals(method.getName()) && method.getParameterCount() == 0) {
+        release(id);
+      }
+      try {
+        return method.invoke(target, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+  }
+
+  private static class Borrow {
+    private final StackTraceElement[] site;
+    private final String thread;
+    private final long borrowedAt;
+    private final AtomicBoolean reported = new AtomicBoolean();
+
+    private Borrow(StackTraceElement[] site, String thread, long borrowedAt) {
+      this.site = site;
+      this.thread = thread;
+      this.borrowedAt = borrowedAt;
+    }
+  }
+
+  @Override
+  public PrintWriter getLogWriter() throws SQLException {
+    return delegate.getLogWriter();
+  }
+
+  @Override
+  public void setLogWriter(PrintWriter out) throws SQLException {
+    delegate.setLogWriter(out);
+  }
+
+  @Override
+  public void setLoginTimeout(int seconds) throws SQLException {
+    delegate.setLoginTimeout(seconds);
+  }
+
+  @Override
+  public int getLoginTimeout() throws SQLException {
+    return delegate.getLoginTimeout();
+  }
+
+  @Override
+  public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+    return delegate.getParentLogger();
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    return iface.isInstance(this) ? iface.cast(this) : delegate.unwrap(iface);
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return iface.isInstance(this) || delegate.isWrapperFor(iface);
+  }
+}
@@ -0,0 +1,22 @@
+package tech.itpark.model;
+
+import lombok.Value;
+
+import java.sql.Timestamp;
+
+// outcome of the book_appointment SQL function
+@Value
+public class BookingResult {
+    long id;            // the appointment's (a template slot's once materialized)
+    Outcome outcome;
+    Timestamp dateTime; // null - WRONG_ID
+    String accessCode;  // BOOKED only
+
+    public enum Outcome {
+        BOOKED,
+        WRONG_ID,
+        WRONG_STATUS,
+        ALREADY_BOOKED,
+        DAY_LIMIT
+    }
+}
@@ -0,0 +1,12 @@
+package tech.itpark.model;
+
+import lombok.Value;
+
+import java.sql.Timestamp;
+
+@Value
+public class OpenSlotResult {
+    Timestamp date_time;
+    Long id;          // opened appointment, null - not opened
+    Long conflict_id; // overlapping appointment, 0 - overlaps an earlier slot of the same request, null - opened
+}
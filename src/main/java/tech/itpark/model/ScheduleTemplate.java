@@ -0,0 +1,14 @@
+package tech.itpark.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@AllArgsConstructor
+@Data
+public class ScheduleTemplate {
+    Long id;
+    Long doctor_id;
+    Integer weekday;  // 1=Monday ... 7=Sunday
+    String startTime; // HH:mm
+    String endTime;   // HH:mm, slots end not later
+}
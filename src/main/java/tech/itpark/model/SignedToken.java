@@ -0,0 +1,22 @@
+package tech.itpark.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Set;
+
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+public class SignedToken {
+  private long userId;
+  private Set<String> roles;
+  private long issuedAt;  // epoch millis
+  private long expiresAt; // epoch millis
+  // profile as of issue: a user info change revokes the token and issues a new one
+  private String login;
+  private String firstName;
+  private String secondName;
+  private String description;
+}
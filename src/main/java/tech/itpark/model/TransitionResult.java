@@ -0,0 +1,23 @@
+package tech.itpark.model;
+
+import lombok.Value;
+
+// outcome of a conditional state change: the updated row, or conflict when the row didn't match the expected state
+// (for open - the appointment already holding the slot)
+@Value
+public class TransitionResult {
+    boolean applied;
+    Appointment appointment;
+
+    public static TransitionResult applied(Appointment appointment) {
+        return new TransitionResult(true, appointment);
+    }
+
+    public static TransitionResult conflict() {
+        return new TransitionResult(false, null);
+    }
+
+    public static TransitionResult conflict(Appointment conflicting) {
+        return new TransitionResult(false, conflicting);
+    }
+}
@@ -1,14 +1,17 @@
 package tech.itpark.model;
 
-import lombok.AllArgsConstructor;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
 import tech.itpark.security.Auth;
+import tech.itpark.security.RoleBits;
 
 import java.util.Set;
 
 @NoArgsConstructor
-@AllArgsConstructor
 @Data
 public class User implements Auth {
   private long    id;
@@ -23,4 +26,37 @@ public class User implements Auth {
   private String  secondName;
   private String  description;
 
+  // roles as bitmask, computed once per RoleBits version (transient -> not serialized)
+  @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE) @ToString.Exclude
+  private transient long roleMask;
+  @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE) @ToString.Exclude
+  private transient volatile int roleMaskVersion = -1;
+
+  public User(long id, String login, String password, String secret, Boolean removed, Set<String> roles,
+              String firstName, String secondName, String description) {
+    this.id = id;
+    this.login = login;
+    this.password = password;
+    this.secret = secret;
+    this.removed = removed;
+    this.roles = roles;
+    this.firstName = firstName;
+    this.secondName = secondName;
+    this.description = description;
+  }
+
+  public void setRoles(Set<String> roles) {
+    this.roles = roles;
+    roleMaskVersion = -1;
+  }
+
+  @Override
+  public long getRoleMask() {
+    final var version = RoleBits.version();
+    if (roleMaskVersion != version) {
+      roleMask = RoleBits.mask(roles);
+      roleMaskVersion = version; // volatile write publishes roleMask
+    }
+    return roleMask;
+  }
 }
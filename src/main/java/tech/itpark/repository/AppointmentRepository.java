@@ -3,269 +3,605 @@ package tech.itpark.repository;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Repository;
 import tech.itpark.exception.DataAccessException;
+import tech.itpark.jdbc.DynamicQuery;
+import tech.itpark.jdbc.JdbcTemplate;
+import tech.itpark.jdbc.RowMapper;
 import tech.itpark.model.Appointment;
+import tech.itpark.model.BookingResult;
+import tech.itpark.model.OpenSlotResult;
+import tech.itpark.model.ScheduleTemplate;
+import tech.itpark.model.TransitionResult;
 import tech.itpark.model.User;
 
-import javax.sql.DataSource;
 import java.sql.*;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 @Repository
 @RequiredArgsConstructor
 public class AppointmentRepository {
-    private final DataSource dataSources;
+    private final JdbcTemplate template;
+
+    private long minimalAppointmentTime; // slot length of schedule templates is minimalAppointmentTime + 1 seconds
+
+    private static final RowMapper<Appointment> appointmentMapper = resultSet -> {
+        final var id = resultSet.findColumn("id");
+        final var dateTime = resultSet.findColumn("dateTime");
+        final var status = resultSet.findColumn("status");
+        final var doctorId = resultSet.findColumn("doctor_id");
+        final var doctorFirstName = resultSet.findColumn("doctorFirstName");
+        final var doctorSecondName = resultSet.findColumn("doctorSecondName");
+        final var doctorDescription = resultSet.findColumn("doctorDescription");
+        final var patientId = resultSet.findColumn("patient_id");
+        final var patientFirstName = resultSet.findColumn("patientFirstName");
+        final var patientSecondName = resultSet.findColumn("patientSecondName");
+        final var patientDescription = resultSet.findColumn("patientDescription");
+        final var accessCode = resultSet.findColumn("accessCode");
+        final var result = resultSet.findColumn("result");
+        return rs -> new Appointment(
+                rs.getLong(id),
+                rs.getTimestamp(dateTime),
+                rs.getInt(status),
+
+                rs.getLong(doctorId),
+                rs.getString(doctorFirstName),
+                rs.getString(doctorSecondName),
+                rs.getString(doctorDescription),
+
+                rs.getLong(patientId),
+                rs.getString(patientFirstName),
+                rs.getString(patientSecondName),
+                rs.getString(patientDescription),
+
+                rs.getString(accessCode),
+                rs.getString(result)
+        );
+    };
+
+    public void initSchedule(long minimalAppointmentTime) {
+        this.minimalAppointmentTime = minimalAppointmentTime;
+    }
+
+    private static final RowMapper<ScheduleTemplate> scheduleTemplateMapper = resultSet -> {
+        final var id = resultSet.findColumn("id");
+        final var doctorId = resultSet.findColumn("doctor_id");
+        final var weekday = resultSet.findColumn("weekday");
+        final var startTime = resultSet.findColumn("start_time");
+        final var endTime = resultSet.findColumn("end_time");
+        return rs -> new ScheduleTemplate(
+                rs.getLong(id),
+                rs.getLong(doctorId),
+                rs.getInt(weekday),
+                rs.getString(startTime),
+                rs.getString(endTime)
+        );
+    };
 
     public Optional<Appointment> getById(long id) {
         if (id <=0){
             return Optional.empty();
         }
-        try(
-            final var connection = dataSources.getConnection();
-            final var statement = connection.prepareStatement("""
-          SELECT a.id AS id, a.dateTime AS dateTime, a.accesscode AS accessCode, a.status AS status, a.result AS result,
-              a.doctor_id AS doctor_id, u_i_d.firstname AS doctorFirstName, u_i_d.secondname AS doctorSecondName, u_i_d.description AS doctorDescription, 
-              a.patient_id AS patient_id, u_i_p.firstname AS patientFirstName, u_i_p.secondname AS patientSecondName, u_i_p.description AS patientDescription 
-          FROM appointment a
-          LEFT JOIN user_info u_i_d ON a.doctor_id = u_i_d.user_id
-          LEFT JOIN user_info u_i_p ON a.patient_id = u_i_p.user_id
-          WHERE a.id = ?
-                        """, Statement.NO_GENERATED_KEYS);
-           ){
-            var index = 0;
-            statement.setLong(++index, id);
-            try (
-                final var resultSet = statement.executeQuery();
-            ) {
-                return resultSet.next() ? Optional.of(appointmentFromResultSet(resultSet)) : Optional.empty();
-            }
-        }catch (SQLException e) {
-            throw new DataAccessException(e);
-        }
+        return template.execute(conn -> getById(conn, id));
+    }
+
+    private Optional<Appointment> getById(Connection conn, long id) {
+        // language=PostgreSQL
+        return template.queryForOptional(conn, """
+          SELECT id, dateTime, status, doctor_id, doctorFirstName, doctorSecondName, doctorDescription,
+              patient_id, patientFirstName, patientSecondName, patientDescription, accessCode, result
+          FROM appointment
+          WHERE id = ?
+                        """, appointmentMapper, id);
     }
 
+    // names are the copies stored at open/book time (kept current by refreshUserInfo), no user_info joins
+    // language=PostgreSQL
+    private static final String FIND_SELECT = """
+          SELECT a.id AS id, a.dateTime AS dateTime, CASE WHEN ? THEN '*****' ELSE a.accesscode END AS accessCode, a.status AS status, a.result AS result,
+              a.doctor_id AS doctor_id, a.doctorFirstName AS doctorFirstName, a.doctorSecondName AS doctorSecondName, a.doctorDescription AS doctorDescription,
+              a.patient_id AS patient_id, CASE WHEN ? THEN 'N/А' ELSE a.patientFirstName END AS patientFirstName,
+                                          CASE WHEN ? THEN 'N/А' ELSE a.patientSecondName END AS patientSecondName,
+                                          CASE WHEN ? THEN 'N/А' ELSE a.patientDescription END  AS patientDescription
+          FROM (
+              SELECT id, dateTime, status, doctor_id, doctorFirstName, doctorSecondName, doctorDescription,
+                  patient_id, patientFirstName, patientSecondName, patientDescription, accessCode, result
+              FROM appointment
+          """;
+
+    // free slots of schedule templates come with negative ids (see materialize), status 0 and no patient
+    // language=PostgreSQL
+    private static final String FIND_SLOTS = """
+              UNION ALL
+              SELECT slot_id, slot_at, 0, slot_doctor_id, slot_first_name, slot_second_name, slot_description,
+                  NULL, '', '', '', '', ''
+              FROM schedule_slots(?, ?, ?::integer)
+          """;
+
+    private static final List<String> FIND_PREDICATES = List.of(
+            "a.dateTime BETWEEN ? AND ?",
+            "a.doctor_id = ANY(?)",
+            "a.patient_id = ANY(?)",
+            "a.status = ANY(?)",
+            "(a.patient_id = 0 OR a.patient_id IS NULL)",
+            "(a.dateTime, a.id) > (?, ?)"
+    );
+
+    // outer predicates are pushed into both parts; template slots are read only when the filters can match them
+    private static final DynamicQuery findQuery = new DynamicQuery(FIND_SELECT + ") a",
+            FIND_PREDICATES, "ORDER BY a.dateTime, a.id LIMIT ?");
+    private static final DynamicQuery findWithSlotsQuery = new DynamicQuery(FIND_SELECT + FIND_SLOTS + ") a",
+            FIND_PREDICATES, "ORDER BY a.dateTime, a.id LIMIT ?");
+
+    // empty sets mean "any"
     public List<Appointment> find(Timestamp startTimestamp, Timestamp endTimestamp,
                                   Set<Long> doctorIds, Set<Long> patientIds, Set<Integer> statuses,
                                   boolean maskedAccessCode, boolean maskedPatientInfo, boolean availableForBooking){
-        List<Appointment> result = new ArrayList<>();
+        return find(startTimestamp, endTimestamp, doctorIds, patientIds, statuses,
+                maskedAccessCode, maskedPatientInfo, availableForBooking, null, 0, null);
+    }
 
-      try (
-        final var connection = dataSources.getConnection();
-        final var statement = connection.prepareStatement("""
-          SELECT a.id AS id, a.dateTime AS dateTime, CASE WHEN ? THEN '*****' ELSE a.accesscode END AS accessCode, a.status AS status, a.result AS result,
-              a.doctor_id AS doctor_id, u_i_d.firstname AS doctorFirstName, u_i_d.secondname AS doctorSecondName, u_i_d.description AS doctorDescription, 
-              a.patient_id AS patient_id, CASE WHEN ? THEN 'N/А' ELSE u_i_p.firstname END AS patientFirstName,
-                                          CASE WHEN ? THEN 'N/А' ELSE u_i_p.secondname END AS patientSecondName,
-                                          CASE WHEN ? THEN 'N/А' ELSE u_i_p.description END  AS patientDescription 
-          FROM appointment a
-          LEFT JOIN user_info u_i_d ON a.doctor_id = u_i_d.user_id
-          LEFT JOIN user_info u_i_p ON a.patient_id = u_i_p.user_id
-          WHERE a.dateTime BETWEEN ? AND ? AND (doctor_id = ANY(?) OR ?) AND (patient_id = ANY(?) OR ?) AND (status = ANY(?) OR ?)
-                  AND (? OR (a.patient_id = 0 OR a.patient_id IS NULL))      
-                        """, Statement.NO_GENERATED_KEYS);
-        ){
-            var index = 0;
-            statement.setBoolean(++index, maskedAccessCode);
-            statement.setBoolean(++index, maskedPatientInfo);
-            statement.setBoolean(++index, maskedPatientInfo);
-            statement.setBoolean(++index, maskedPatientInfo);
-            statement.setTimestamp(++index, startTimestamp);
-            statement.setTimestamp(++index, endTimestamp);
-            statement.setArray(++index,     connection.createArrayOf("BIGINT", doctorIds.toArray(Long[]::new)));
-            statement.setBoolean(++index, doctorIds.size() == 0);
-            statement.setArray(++index,     connection.createArrayOf("BIGINT", patientIds.toArray(Long[]::new)));
-            statement.setBoolean(++index, patientIds.size() == 0);
-            statement.setArray(++index,     connection.createArrayOf("INTEGER", statuses.toArray(Integer[]::new)));
-            statement.setBoolean(++index, statuses.size() == 0);
-            statement.setBoolean(++index, !availableForBooking);
-
-            try (
-                final var resultSet = statement.executeQuery();
-            ) {
-                while (resultSet.next()) {
-                    result.add(new Appointment(
-                            resultSet.getLong("id"),
-                            resultSet.getTimestamp("dateTime"),
-                            resultSet.getInt("status"),
-
-                            resultSet.getLong("doctor_id"),
-                            resultSet.getString("doctorFirstName"),
-                            resultSet.getString("doctorSecondName"),
-                            resultSet.getString("doctorDescription"),
-
-                            resultSet.getLong("patient_id"),
-                            resultSet.getString("patientFirstName"),
-                            resultSet.getString("patientSecondName"),
-                            resultSet.getString("patientDescription"),
-
-                            resultSet.getString("accessCode"),
-                            resultSet.getString("result")
-                            )
-                    );
-                }
-            }
-        }catch (SQLException e) {
-            throw new DataAccessException(e);
-        }
-        return result;
-    }
-
-    public Appointment open(Appointment appointment) {
-        try (
-            final var connection = dataSources.getConnection();
-            final var statement = connection.prepareStatement("""
-                INSERT INTO appointment(dateTime, doctor_id, doctorFirstName, doctorSecondName, doctorDescription)
-                VALUES (?, ?, ?, ?, ?);
-            """, Statement.RETURN_GENERATED_KEYS); // альтернатива RETURNING
-        ) {
-            var index = 0;
-            statement.setTimestamp(++index, appointment.getDateTime());
-            statement.setLong(++index, appointment.getDoctor_id());
-            statement.setString(++index, appointment.getDoctorFirstName());
-            statement.setString(++index, appointment.getDoctorSecondName());
-            statement.setString(++index, appointment.getDoctorDescription());
-            statement.executeUpdate();
-
-            final var keys = statement.getGeneratedKeys();
-            if (!keys.next()) {
-                throw new DataAccessException("no keys in result");
-            }
+    // keyset page: rows after (afterDateTime, afterId) in (dateTime, id) order; afterDateTime = null - from the start,
+    // limit = null - all rows
+    public List<Appointment> find(Timestamp startTimestamp, Timestamp endTimestamp,
+                                  Set<Long> doctorIds, Set<Long> patientIds, Set<Integer> statuses,
+                                  boolean maskedAccessCode, boolean maskedPatientInfo, boolean availableForBooking,
+                                  Timestamp afterDateTime, long afterId, Integer limit){
+        final var where = findWhere(startTimestamp, endTimestamp, doctorIds, patientIds, statuses,
+                maskedAccessCode, maskedPatientInfo, availableForBooking)
+                .and(afterDateTime != null, afterDateTime, afterId);
+        return template.query(where.sql(), appointmentMapper, where.params(limit));
+    }
 
-            appointment.setId(keys.getLong(1));
+    // all rows in (dateTime, id) order, read by fetch size pages of a server-side cursor and passed to consumer one by one
+    public void find(Timestamp startTimestamp, Timestamp endTimestamp,
+                     Set<Long> doctorIds, Set<Long> patientIds, Set<Integer> statuses,
+                     boolean maskedAccessCode, boolean maskedPatientInfo, boolean availableForBooking,
+                     Consumer<Appointment> consumer){
+        final var where = findWhere(startTimestamp, endTimestamp, doctorIds, patientIds, statuses,
+                maskedAccessCode, maskedPatientInfo, availableForBooking)
+                .and(false);
+        template.queryForEach(where.sql(), appointmentMapper, consumer, where.params((Object) null));
+    }
 
-            return appointment;
-        } catch (SQLException e) {
-            throw new DataAccessException(e);
-        }
+    private DynamicQuery.Where findWhere(Timestamp startTimestamp, Timestamp endTimestamp,
+                                         Set<Long> doctorIds, Set<Long> patientIds, Set<Integer> statuses,
+                                         boolean maskedAccessCode, boolean maskedPatientInfo, boolean availableForBooking){
+        final var where = (statuses.isEmpty() || statuses.contains(0)) && patientIds.isEmpty()
+                ? findWithSlotsQuery.where(maskedAccessCode, maskedPatientInfo, maskedPatientInfo, maskedPatientInfo,
+                        startTimestamp, endTimestamp, minimalAppointmentTime + 1)
+                : findQuery.where(maskedAccessCode, maskedPatientInfo, maskedPatientInfo, maskedPatientInfo);
+        return where
+                .and(true, startTimestamp, endTimestamp)
+                .and(!doctorIds.isEmpty(), JdbcTemplate.array("BIGINT", doctorIds))
+                .and(!patientIds.isEmpty(), JdbcTemplate.array("BIGINT", patientIds))
+                .and(!statuses.isEmpty(), JdbcTemplate.array("INTEGER", statuses))
+                .and(availableForBooking);
     }
 
-    public void book(Appointment appointment, User user) {
-        try (
-            final var statement = dataSources.getConnection().prepareStatement("""
-               UPDATE appointment 
-               SET patient_id = ?, patientFirstName = ?, patientSecondName = ?, patientDescription = ?, accessCode = ?
-               WHERE id = ?
-                       """)
-        ) {
-            var index = 0;
-            statement.setLong(++index,   user.getId());
-            statement.setString(++index, user.getFirstName());
-            statement.setString(++index, user.getSecondName());
-            statement.setString(++index, user.getDescription());
-            statement.setString(++index, appointment.getAccessCode());
-            statement.setLong(++index, appointment.getId());
-
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new DataAccessException(e);
+    // slot is [dateTime, dateTime + minimalAppointmentTime]; overlap with an open slot of the same doctor is rejected
+    // by appointment_doctor_period_excl, the conflicting appointment is returned then
+    public TransitionResult open(Appointment appointment, long minimalAppointmentTime) {
+        try {
+            // language=PostgreSQL
+            final var id = template.queryForOptional("""
+                INSERT INTO appointment(dateTime, doctor_id, doctorFirstName, doctorSecondName, doctorDescription, period)
+                VALUES (?, ?, ?, ?, ?, tsrange(?::timestamp, ?::timestamp + make_interval(secs => ?), '[]')) RETURNING id
+            """, RowMapper.longColumn("id"), // RETURNING вместо getGeneratedKeys
+                    appointment.getDateTime(),
+                    appointment.getDoctor_id(),
+                    appointment.getDoctorFirstName(),
+                    appointment.getDoctorSecondName(),
+                    appointment.getDoctorDescription(),
+                    appointment.getDateTime(), appointment.getDateTime(), minimalAppointmentTime
+            ).orElseThrow(() -> new DataAccessException("no keys in result"));
+
+            appointment.setId(id);
+
+            return TransitionResult.applied(appointment);
+        } catch (DataAccessException e) {
+            if (!isExclusionViolation(e)) {
+                throw e;
+            }
+            // cold path: the constraint error names only the key, look up which appointment holds the slot
+            return TransitionResult.conflict(getOverlapping(appointment.getDoctor_id(), appointment.getDateTime(), minimalAppointmentTime)
+                    .orElseThrow(() -> e));
         }
     }
 
-    public void unBook(Appointment appointment) {
-        try (
-                final var statement = dataSources.getConnection().prepareStatement("""
-               UPDATE appointment 
-               SET patient_id = NULL, patientFirstName = '', patientSecondName = '', patientDescription = '', accessCode  = '' 
-               WHERE id = ?
-                       """)
-        ) {
-            var index = 0;
-            statement.setLong(++index, appointment.getId());
-
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new DataAccessException(e);
+    // conflicts with stored appointments and within the request are found and the rest inserted by one statement;
+    // a concurrent open of the same doctor makes it fail on the exclusion constraint, then slots are opened one by one
+    public List<OpenSlotResult> openBulk(User doctor, List<Timestamp> dateTimes, long minimalAppointmentTime) {
+        try {
+            // language=PostgreSQL
+            return template.query("""
+                WITH requested AS (
+                    SELECT r.at, r.ord, tsrange(r.at, r.at + make_interval(secs => ?), '[]') AS period
+                    FROM unnest(?::timestamp[]) WITH ORDINALITY AS r(at, ord)
+                ), stored AS (
+                    SELECT r.*, (
+                        SELECT a.id FROM appointment a
+                        WHERE a.doctor_id = ? AND a.status = 0 AND a.period && r.period
+                          AND a.dateTime BETWEEN r.at - make_interval(secs => ?) AND r.at + make_interval(secs => ?)
+                        ORDER BY a.dateTime LIMIT 1
+                    ) AS conflict_id
+                    FROM requested r
+                ), checked AS (
+                    SELECT s.*, s.conflict_id IS NULL AND NOT EXISTS (
+                        SELECT 1 FROM stored e WHERE e.ord < s.ord AND e.conflict_id IS NULL AND e.period && s.period
+                    ) AS free
+                    FROM stored s
+                ), inserted AS (
+                    INSERT INTO appointment(dateTime, doctor_id, doctorFirstName, doctorSecondName, doctorDescription, period)
+                    SELECT at, ?, ?, ?, ?, period FROM checked WHERE free
+                    RETURNING id, dateTime
+                )
+                SELECT c.at AS date_time, i.id AS id, CASE WHEN c.free THEN NULL ELSE COALESCE(c.conflict_id, 0) END AS conflict_id
+                FROM checked c
+                LEFT JOIN inserted i ON c.free AND i.dateTime = c.at
+                ORDER BY c.ord
+                """, openSlotResultMapper,
+                    minimalAppointmentTime,
+                    JdbcTemplate.array("timestamp", dateTimes),
+                    doctor.getId(), minimalAppointmentTime, minimalAppointmentTime,
+                    doctor.getId(), doctor.getFirstName(), doctor.getSecondName(), doctor.getDescription());
+        } catch (DataAccessException e) {
+            if (!isExclusionViolation(e)) {
+                throw e;
+            }
+            final var result = new ArrayList<OpenSlotResult>();
+            for (Timestamp dateTime : dateTimes) {
+                final var opened = open(new Appointment(0L, dateTime, 0,
+                        doctor.getId(), doctor.getFirstName(), doctor.getSecondName(), doctor.getDescription(),
+                        0L, "", "", "", "", ""), minimalAppointmentTime);
+                result.add(opened.isApplied()
+                        ? new OpenSlotResult(dateTime, opened.getAppointment().getId(), null)
+                        : new OpenSlotResult(dateTime, null, opened.getAppointment().getId()));
+            }
+            return result;
         }
     }
 
-    public void close(Appointment appointment) {
-        try (
-            final var statement = dataSources.getConnection().prepareStatement("""
-               UPDATE appointment SET status = ?, accessCode = ?, result = ?  WHERE id = ?
-                       """)
-        ) {
-            var index = 0;
-            statement.setLong(++index,  appointment.getStatus());
-            statement.setString(++index,appointment.getAccessCode());
-            statement.setString(++index,appointment.getResult());
-            statement.setLong(++index,  appointment.getId());
-
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new DataAccessException(e);
-        }
+    private static final RowMapper<OpenSlotResult> openSlotResultMapper = resultSet -> {
+        final var dateTime = resultSet.findColumn("date_time");
+        final var id = resultSet.findColumn("id");
+        final var conflictId = resultSet.findColumn("conflict_id");
+        return rs -> new OpenSlotResult(
+                rs.getTimestamp(dateTime),
+                rs.getObject(id, Long.class),
+                rs.getObject(conflictId, Long.class)
+        );
+    };
+
+    private Optional<Appointment> getOverlapping(long doctorId, Timestamp dateTime, long minimalAppointmentTime) {
+        // language=PostgreSQL
+        return template.queryForOptional("""
+                SELECT id, dateTime, status, doctor_id, doctorFirstName, doctorSecondName, doctorDescription,
+                    patient_id, patientFirstName, patientSecondName, patientDescription, accessCode, result
+                FROM appointment
+                WHERE doctor_id = ? AND status = 0 AND period && tsrange(?::timestamp, ?::timestamp + make_interval(secs => ?), '[]')
+                ORDER BY dateTime
+                """, appointmentMapper, doctorId, dateTime, dateTime, minimalAppointmentTime);
     }
 
-    public void cancel(Appointment appointment) {
-        try (
-            final var statement = dataSources.getConnection().prepareStatement("""
-                UPDATE appointment SET patient_id = ?, patientFirstName = ?, patientSecondName = ?, patientdescription = ?,
-                accessCode = ?, status = ? 
-                  WHERE id = ?
-                       """)
-        ) {
-            var index = 0;
-            final var patient_id = appointment.getPatient_id();
-            final var patientFirstName = appointment.getPatientFirstName();
-            final var patientSecondName = appointment.getPatientSecondName();
-            final var patientDescription = appointment.getPatientDescription();
-            final var accessCode = appointment.getAccessCode();
-
-            if (patient_id != null && patient_id != 0){
-                statement.setLong(++index, patient_id);
-            }else {
-                statement.setNull(++index, Types.BIGINT);
-            }
+    // open appointments (the ones appointment_doctor_period_excl compares) starting within [since, until]
+    public List<Appointment> findOpen(Timestamp since, Timestamp until) {
+        // language=PostgreSQL
+        return template.query("""
+                SELECT id, dateTime, status, doctor_id, doctorFirstName, doctorSecondName, doctorDescription,
+                    patient_id, patientFirstName, patientSecondName, patientDescription, accessCode, result
+                FROM appointment
+                WHERE status = 0 AND dateTime BETWEEN ? AND ?
+                """, appointmentMapper, since, until);
+    }
 
-            if (patientFirstName != null && patientFirstName != ""){
-                statement.setString(++index, patientFirstName);
-            }else {
-                statement.setString(++index, "");
-            }
-            if (patientSecondName != null && patientSecondName != ""){
-                statement.setString(++index, patientSecondName);
-            }else {
-                statement.setString(++index, "");
+    private static boolean isExclusionViolation(DataAccessException e) {
+        return e.getCause() instanceof SQLException && "23P01".equals(((SQLException) e.getCause()).getSQLState());
+    }
+
+    // copies user_info of up to chunk queued users into their appointments from now on, returns number of users taken
+    public int refreshUserInfo(int chunk) {
+        return template.transaction(conn -> {
+            // language=PostgreSQL
+            final var userIds = template.query(conn, """
+                    DELETE FROM appointment_info_refresh WHERE user_id IN (
+                        SELECT user_id FROM appointment_info_refresh ORDER BY queued_at LIMIT ? FOR UPDATE SKIP LOCKED
+                    ) RETURNING user_id
+                    """, RowMapper.longColumn("user_id"), chunk);
+            if (userIds.isEmpty()) {
+                return 0;
             }
-            if (patientDescription != null && patientDescription != ""){
-                statement.setString(++index, patientDescription);
-            }else {
-                statement.setString(++index, "");
+            final var users = JdbcTemplate.array("BIGINT", userIds);
+            // language=PostgreSQL
+            template.update(conn, """
+                    UPDATE appointment a SET doctorFirstName = ui.firstName, doctorSecondName = ui.secondName, doctorDescription = ui.description
+                    FROM user_info ui
+                    WHERE ui.user_id = a.doctor_id AND a.doctor_id = ANY(?) AND a.dateTime >= LOCALTIMESTAMP
+                    """, users);
+            // language=PostgreSQL
+            template.update(conn, """
+                    UPDATE appointment a SET patientFirstName = ui.firstName, patientSecondName = ui.secondName, patientDescription = ui.description
+                    FROM user_info ui
+                    WHERE ui.user_id = a.patient_id AND a.patient_id = ANY(?) AND a.dateTime >= LOCALTIMESTAMP
+                    """, users);
+            return userIds.size();
+        });
+    }
+
+/////////////////////////////////////////////////////////////////////////////////////////////////////  S C H E D U L E
+
+    public List<ScheduleTemplate> getSchedule(long doctorId) {
+        // language=PostgreSQL
+        return template.query("""
+                SELECT id, doctor_id, weekday, to_char(start_time, 'HH24:MI') AS start_time, to_char(end_time, 'HH24:MI') AS end_time
+                FROM schedule_template WHERE doctor_id = ? ORDER BY weekday, start_time
+                """, scheduleTemplateMapper, doctorId);
+    }
+
+    // the doctor's templates become the given ones: templates not given are deleted, new ones inserted, unchanged ones
+    // (same weekday and times) keep their ids, so their slot ids already listed stay valid;
+    // slots already booked or canceled stay as they are
+    public List<ScheduleTemplate> setSchedule(long doctorId, List<ScheduleTemplate> templates) {
+        final var weekdays = JdbcTemplate.array("INTEGER", templates.stream().map(ScheduleTemplate::getWeekday).collect(Collectors.toList()));
+        final var startTimes = JdbcTemplate.array("TEXT", templates.stream().map(ScheduleTemplate::getStartTime).collect(Collectors.toList()));
+        final var endTimes = JdbcTemplate.array("TEXT", templates.stream().map(ScheduleTemplate::getEndTime).collect(Collectors.toList()));
+        template.transaction(conn -> {
+            // language=PostgreSQL
+            template.update(conn, """
+                    DELETE FROM schedule_template t
+                    WHERE t.doctor_id = ? AND NOT EXISTS (
+                        SELECT 1 FROM unnest(?, ?, ?) n(weekday, start_time, end_time)
+                        WHERE n.weekday = t.weekday AND n.start_time::time = t.start_time AND n.end_time::time = t.end_time)
+                    """, doctorId, weekdays, startTimes, endTimes);
+            // language=PostgreSQL
+            return template.update(conn, """
+                    INSERT INTO schedule_template(doctor_id, weekday, start_time, end_time)
+                    SELECT DISTINCT ?::bigint, n.weekday, n.start_time::time, n.end_time::time
+                    FROM unnest(?, ?, ?) n(weekday, start_time, end_time)
+                    WHERE NOT EXISTS (SELECT 1 FROM schedule_template t
+                                      WHERE t.doctor_id = ? AND t.weekday = n.weekday
+                                        AND t.start_time = n.start_time::time AND t.end_time = n.end_time::time)
+                    """, doctorId, weekdays, startTimes, endTimes, doctorId);
+        });
+        return getSchedule(doctorId);
+    }
+
+    // negative ids are free slots of schedule templates: the slot is materialized (becomes a real open appointment)
+    // and the transition is applied to it in one transaction, a transition not applied rolls the new appointment back.
+    // A conflict carries the appointment as it was read in the transaction (not stored, if it was materialized here);
+    // empty - no such slot
+    public Optional<TransitionResult> bookSlot(long virtualId, User patient, String accessCode, long dayLimit) {
+        return slotTransaction(virtualId, (conn, id) -> slotResult(conn, id, book(conn, id, patient, accessCode, dayLimit)),
+                TransitionResult::isApplied);
+    }
+
+    public Optional<TransitionResult> cancelSlot(long virtualId, long doctorId) {
+        return slotTransaction(virtualId, (conn, id) -> slotResult(conn, id, cancel(conn, id, doctorId)),
+                TransitionResult::isApplied);
+    }
+
+    // booking_mode=function; dateTime of DAY_LIMIT is the slot's one
+    public Optional<BookingResult> bookSlotWithFunction(long virtualId, User patient, long dayLimit) {
+        return slotTransaction(virtualId, (conn, id) -> bookWithFunction(conn, id, patient, dayLimit),
+                result -> result.getOutcome() == BookingResult.Outcome.BOOKED);
+    }
+
+    private <T> Optional<T> slotTransaction(long virtualId, SlotCall<T> call, Predicate<T> applied) {
+        return template.transaction(conn -> {
+            final var id = materialize(conn, virtualId);
+            if (id.isEmpty()) {
+                return Optional.<T>empty();
             }
-            if (accessCode != null && accessCode != ""){
-                statement.setString(++index, accessCode);
-            }else {
-                statement.setString(++index, "");
+            final var result = call.apply(conn, id.get());
+            if (!applied.test(result)) {
+                conn.rollback();
             }
+            return Optional.of(result);
+        });
+    }
 
-            statement.setInt(++index, appointment.getStatus());
-            statement.setLong(++index, appointment.getId());
+    private TransitionResult slotResult(Connection conn, long id, TransitionResult result) {
+        return result.isApplied() ? result : TransitionResult.conflict(getById(conn, id).orElse(null));
+    }
+
+    @FunctionalInterface
+    private interface SlotCall<T> {
+        T apply(Connection conn, long id) throws SQLException;
+    }
 
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new DataAccessException(e);
+    // a free virtual slot becomes a real open appointment, returns its id; if another request got there first,
+    // the id of that appointment; empty - no such slot (wrong id, past, taken by an overlapping appointment)
+    private Optional<Long> materialize(Connection conn, long virtualId) throws SQLException {
+        if (virtualId >= 0 || virtualId == Long.MIN_VALUE) {
+            return Optional.empty();
+        }
+        final var templateId = -virtualId & ((1L << SLOT_TEMPLATE_BITS) - 1);
+        final var at = Timestamp.valueOf(LocalDateTime.ofEpochSecond(-virtualId >>> SLOT_TEMPLATE_BITS, 0, ZoneOffset.UTC));
+        // the transaction goes on after an exclusion violation
+        final var savepoint = conn.setSavepoint();
+        try {
+            // language=PostgreSQL
+            return template.queryForOptional(conn, """
+                WITH slot AS (SELECT ?::timestamp AS at, ? * INTERVAL '1 second' AS step)
+                INSERT INTO appointment(dateTime, doctor_id, doctorFirstName, doctorSecondName, doctorDescription, period)
+                SELECT s.at, t.doctor_id, COALESCE(ui.firstName, ''), COALESCE(ui.secondName, ''), COALESCE(ui.description, ''),
+                    tsrange(s.at, s.at + s.step - INTERVAL '1 second', '[]')
+                FROM slot s
+                JOIN schedule_template t ON t.id = ?
+                LEFT JOIN user_info ui ON ui.user_id = t.doctor_id
+                WHERE EXTRACT(ISODOW FROM s.at) = t.weekday AND s.at > LOCALTIMESTAMP
+                  AND s.at >= date_trunc('day', s.at) + t.start_time AND s.at + s.step <= date_trunc('day', s.at) + t.end_time
+                  AND MOD(EXTRACT(EPOCH FROM s.at - (date_trunc('day', s.at) + t.start_time))::BIGINT, EXTRACT(EPOCH FROM s.step)::BIGINT) = 0
+                RETURNING id
+                """, RowMapper.longColumn("id"), at, minimalAppointmentTime + 1, templateId);
+        } catch (DataAccessException e) {
+            if (!isExclusionViolation(e)) {
+                throw e;
+            }
+            conn.rollback(savepoint);
+            // language=PostgreSQL
+            return template.queryForOptional(conn, """
+                SELECT a.id FROM appointment a
+                JOIN schedule_template t ON t.doctor_id = a.doctor_id
+                WHERE t.id = ? AND a.dateTime = ? AND a.status = 0
+                """, RowMapper.longColumn("id"), templateId, at);
         }
     }
 
-    private Appointment appointmentFromResultSet(ResultSet resultSet) throws SQLException{
-            return new Appointment(
-                    resultSet.getLong("id"),
-                    resultSet.getTimestamp("dateTime"),
-                    resultSet.getInt("status"),
+    private static final int SLOT_TEMPLATE_BITS = 30;
+
+///////////////////////////////////////////////////////////////////////////////////////////////////  P A R T I T I O N S
+
+    // monthly partitions covering [since, until] that don't exist yet are created, returns how many
+    public long createPartitions(Timestamp since, Timestamp until) {
+        // language=PostgreSQL
+        return template.queryForOptional("SELECT appointment_create_partitions(?, ?) AS created",
+                RowMapper.longColumn("created"), since, until).orElse(0L);
+    }
+
+    // months ending not later than before are detached into appointment_archive_YYYY_MM tables, returns how many
+    public long detachPartitions(Timestamp before) {
+        // language=PostgreSQL
+        return template.queryForOptional("SELECT appointment_detach_partitions(?) AS detached",
+                RowMapper.longColumn("detached"), before).orElse(0L);
+    }
 
-                    resultSet.getLong("doctor_id"),
-                    resultSet.getString("doctorFirstName"),
-                    resultSet.getString("doctorSecondName"),
-                    resultSet.getString("doctorDescription"),
+/////////////////////////////////////////////////////////////////////////////////////////////////  T R A N S I T I O N S
+    // each transition is one conditional UPDATE: no rows means the appointment is not in the expected state (or lost a race)
 
-                    resultSet.getLong("patient_id"),
-                    resultSet.getString("patientFirstName"),
-                    resultSet.getString("patientSecondName"),
-                    resultSet.getString("patientDescription"),
+    private static final String RETURNING = """
+            RETURNING id, dateTime, status, doctor_id, doctorFirstName, doctorSecondName, doctorDescription,
+                patient_id, patientFirstName, patientSecondName, patientDescription, accessCode, result
+            """;
 
-                    resultSet.getString("accessCode"),
-                    resultSet.getString("result")
+    // open, not booked, and the patient has less than dayLimit open/closed appointments that day;
+    // the slot row is locked first, then the patient_day_bookings row is counted up only while under the limit
+    // (concurrent books of the same patient queue on it), and only then the slot is booked
+    public TransitionResult book(long id, User patient, String accessCode, long dayLimit) {
+        return template.execute(conn -> book(conn, id, patient, accessCode, dayLimit));
+    }
+
+    private TransitionResult book(Connection conn, long id, User patient, String accessCode, long dayLimit) {
+        // language=PostgreSQL
+        return transition(conn, """
+               WITH slot AS (
+                   SELECT id AS slot_id, dateTime AS slot_at FROM appointment
+                   WHERE id = ? AND status = 0 AND (patient_id IS NULL OR patient_id = 0)
+                   FOR UPDATE
+               ), counter AS (
+                   INSERT INTO patient_day_bookings(patient_id, day, bookings)
+                   SELECT ?, slot_at::date, 1 FROM slot WHERE ? > 0
+                   ON CONFLICT (patient_id, day) DO UPDATE SET bookings = patient_day_bookings.bookings + 1
+                       WHERE patient_day_bookings.bookings < ?
+                   RETURNING day AS counted_day
+               )
+               UPDATE appointment a
+               SET patient_id = ?, patientFirstName = ?, patientSecondName = ?, patientDescription = ?, accessCode = ?
+               FROM slot, counter
+               WHERE a.id = slot.slot_id AND a.dateTime = slot.slot_at
+               """,
+                id,
+                patient.getId(),
+                dayLimit,
+                dayLimit,
+                patient.getId(),
+                patient.getFirstName(),
+                patient.getSecondName(),
+                patient.getDescription(),
+                accessCode);
+    }
+
+    // open and booked; patientId = 0 - by any patient; the patient's day counter goes down in the same statement
+    public TransitionResult unBook(long id, long patientId) {
+        // language=PostgreSQL
+        return transition("""
+               WITH slot AS (
+                   SELECT id AS slot_id, dateTime AS slot_at, patient_id AS slot_patient_id FROM appointment
+                   WHERE id = ? AND status = 0 AND patient_id IS NOT NULL AND patient_id <> 0 AND (? OR patient_id = ?)
+                   FOR UPDATE
+               ), counter AS (
+                   UPDATE patient_day_bookings c SET bookings = c.bookings - 1
+                   FROM slot
+                   WHERE c.patient_id = slot.slot_patient_id AND c.day = slot.slot_at::date AND c.bookings > 0
+               )
+               UPDATE appointment
+               SET patient_id = NULL, patientFirstName = '', patientSecondName = '', patientDescription = '', accessCode  = ''
+               FROM slot
+               WHERE id = slot.slot_id AND dateTime = slot.slot_at
+               """, id, patientId == 0, patientId);
+    }
+
+    // booking_mode=function: status, patient and day limit checks, access code and update in one call
+    public BookingResult bookWithFunction(long id, User patient, long dayLimit) {
+        return template.execute(conn -> bookWithFunction(conn, id, patient, dayLimit));
+    }
+
+    private BookingResult bookWithFunction(Connection conn, long id, User patient, long dayLimit) {
+        // language=PostgreSQL
+        return template.queryForOptional(conn, """
+                SELECT outcome, slot_at, access_code FROM book_appointment(?, ?, ?, ?, ?, ?::integer)
+                """, resultSet -> {
+                    final var outcome = resultSet.findColumn("outcome");
+                    final var slotAt = resultSet.findColumn("slot_at");
+                    final var accessCode = resultSet.findColumn("access_code");
+                    return rs -> new BookingResult(
+                            id,
+                            BookingResult.Outcome.valueOf(rs.getString(outcome)),
+                            rs.getTimestamp(slotAt),
+                            rs.getString(accessCode)
+                    );
+                },
+                id,
+                patient.getId(),
+                patient.getFirstName(),
+                patient.getSecondName(),
+                patient.getDescription(),
+                dayLimit
+        ).orElseThrow(() -> new DataAccessException("no result of book_appointment"));
+    }
+
+    public long dayBookings(long patientId, Timestamp dateTime) {
+        // language=PostgreSQL
+        return template.queryForOptional("""
+                SELECT bookings FROM patient_day_bookings WHERE patient_id = ? AND day = ?::date
+                """, RowMapper.longColumn("bookings"), patientId, dateTime).orElse(0L);
+    }
+
+    // open and booked; doctorId = 0 - any doctor's appointment without access code check (access code is cleared)
+    public TransitionResult close(long id, long doctorId, String accessCode, String result) {
+        // language=PostgreSQL
+        return transition("""
+               UPDATE appointment SET status = 1, result = ?, accessCode = CASE WHEN ? THEN '--------' ELSE accessCode END
+               WHERE id = ? AND status = 0 AND patient_id IS NOT NULL AND patient_id <> 0
+                 AND (? OR (doctor_id = ? AND accessCode = ?))
+               """, result, doctorId == 0, id, doctorId == 0, doctorId, accessCode);
+    }
+
+    // open and not booked; doctorId = 0 - any doctor's appointment
+    public TransitionResult cancel(long id, long doctorId) {
+        return template.execute(conn -> cancel(conn, id, doctorId));
+    }
+
+    private TransitionResult cancel(Connection conn, long id, long doctorId) {
+        // language=PostgreSQL
+        return transition(conn, """
+                UPDATE appointment SET patient_id = NULL, patientFirstName = '', patientSecondName = '', patientdescription = '',
+                accessCode = '', status = -1
+                  WHERE id = ? AND status = 0 AND (patient_id IS NULL OR patient_id = 0) AND (? OR doctor_id = ?)
+                """, id, doctorId == 0, doctorId);
+    }
+
+    private TransitionResult transition(String update, Object... params) {
+        return template.execute(conn -> transition(conn, update, params));
+    }
 
-            );
+    private TransitionResult transition(Connection conn, String update, Object... params) {
+        return template.queryForOptional(conn, update + RETURNING, appointmentMapper, params)
+                .map(TransitionResult::applied)
+                .orElseGet(TransitionResult::conflict);
     }
 
 }
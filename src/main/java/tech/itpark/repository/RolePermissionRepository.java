@@ -4,276 +4,152 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Repository;
 import tech.itpark.configuration.AppParams;
 import tech.itpark.exception.DataAccessException;
+import tech.itpark.jdbc.JdbcTemplate;
+import tech.itpark.jdbc.RowMapper;
 
-import javax.sql.DataSource;
-import java.sql.Array;
-import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.*;
 import java.util.stream.Collectors;
 
 @Repository
 @RequiredArgsConstructor
 public class RolePermissionRepository {
-    private final DataSource dataSource;
+    private final JdbcTemplate template;
+
+    private static final RowMapper<Map.Entry<String, Set<String>>> operationRolesMapper = resultSet -> {
+        final var operation = resultSet.findColumn("operation");
+        final var roles = resultSet.findColumn("roles");
+        return rs -> Map.entry(rs.getString(operation), Set.of((String[]) rs.getArray(roles).getArray()));
+    };
+
+    // column names come from app.properties, so the mapper is built per call
+    private static RowMapper<Map.Entry<String, Map<String, Boolean>>> roleAttributesMapper() {
+        final var nameColumn = AppParams.rolePropertyNAME();
+        final var attributeColumns = List.of(AppParams.rolePropertyACTIVE(), AppParams.roleAttributeADMIN(),
+                AppParams.roleAttributeCHIEF(), AppParams.roleAttributeDOCTOR(), AppParams.roleAttributePATIENT());
+        return resultSet -> {
+            final var name = resultSet.findColumn(nameColumn);
+            final var attributes = new int[attributeColumns.size()];
+            for (int i = 0; i < attributes.length; i++) {
+                attributes[i] = resultSet.findColumn(attributeColumns.get(i));
+            }
+            return rs -> {
+                final var values = new HashMap<String, Boolean>();
+                for (int i = 0; i < attributes.length; i++) {
+                    values.put(attributeColumns.get(i), rs.getBoolean(attributes[i]));
+                }
+                return Map.entry(rs.getString(name), Map.copyOf(values));
+            };
+        };
+    }
 
 
     public Set<String> getOperationRoles(String operation) {
-        try (
-                final var connection = dataSource.getConnection();
-                final var statement = connection.prepareStatement("""
+        // language=PostgreSQL
+        return template.queryForOptional("""
         SELECT p.operation operation , ARRAY_AGG( COALESCE(r.name, ?)) AS roles FROM permissions p
         LEFT JOIN roles r on p.role_id = r.id
         WHERE LOWER(operation) = ?
         GROUP BY p.operation
-        """, Statement.NO_GENERATED_KEYS);
-        ){
-
-            var index = 0;
-            statement.setString(++index,  AppParams.roleAnonymous());
-            statement.setString(++index,  operation);
-
-            try (
-                    final var resultSet = statement.executeQuery();
-            ) {
-                while (resultSet.next()) {
-                    return Set.of((String[])resultSet.getArray("roles").getArray());
-                }
-            }
-        }catch (SQLException e) {
-            throw new DataAccessException(e);
-        }
-        return Set.of();
+        """, operationRolesMapper, AppParams.roleAnonymous(), operation)
+                .map(Map.Entry::getValue)
+                .orElse(Set.of());
     }
 
     public Map<String, Set<String>> findPermissions(Set<String> operations, Set<String> roles) {
-        Map<String, Set<String>> result = new HashMap<>();
-        try (
-                final var connection = dataSource.getConnection();
-                final var statement = connection.prepareStatement("""
+        final var operationPatterns = operations.stream().map(o -> "%" + o.toLowerCase() + "%").collect(Collectors.toList());
+        // language=PostgreSQL
+        return toMap(template.query("""
         SELECT p.operation operation , ARRAY_AGG( COALESCE(r.name, ?)) AS roles FROM permissions p
         LEFT JOIN roles r on p.role_id = r.id
         WHERE (?  OR LOWER(operation) LIKE ANY (?)) AND (?  OR r.name LIKE ANY (?))
         GROUP BY p.operation
-        """, Statement.NO_GENERATED_KEYS);
-        ){
-            Array operationsArray = connection.createArrayOf("TEXT", operations.stream().map(o -> "%" + o.toLowerCase() + "%").toArray(String[]::new));
-            Array rolesArray = connection.createArrayOf("TEXT", roles.toArray(String[]::new));
-
-            var index = 0;
-            statement.setString(++index,  AppParams.roleAnonymous());
-            statement.setBoolean(++index, operations.size() == 0);
-            statement.setArray(++index,   operationsArray);
-            statement.setBoolean(++index, roles.size() == 0);
-            statement.setArray(++index,   rolesArray);
-
-            try (
-                    final var resultSet = statement.executeQuery();
-            ) {
-                while (resultSet.next()) {
-                    result.put(resultSet.getString("operation"), Set.of((String[])resultSet.getArray("roles").getArray()));
-                }
-            }
-        }catch (SQLException e) {
-            throw new DataAccessException(e);
-        }
-        return result;
+        """, operationRolesMapper,
+                AppParams.roleAnonymous(),
+                operations.size() == 0, JdbcTemplate.array("TEXT", operationPatterns),
+                roles.size() == 0, JdbcTemplate.array("TEXT", roles)));
     }
 
     public void appendPermissions(String operation, Set<String> roles) {
-        try (
-                final var connection = dataSource.getConnection();
-                final var statement = connection.prepareStatement("""
-          INSERT INTO permissions(operation, role_id) 
+        // language=PostgreSQL
+        template.update("""
+          INSERT INTO permissions(operation, role_id)
           SELECT ?, r.id FROM roles r WHERE r.name = ANY(?)
-            """,Statement.NO_GENERATED_KEYS
-                );
-        ) {
-
-            Array rolesArray = connection.createArrayOf("TEXT", roles.toArray(String[]::new));
-
-            var index = 0;
-            statement.setString(++index, operation);
-            statement.setArray(++index, rolesArray);
-            statement.executeUpdate();
-
-        } catch (SQLException e) {
-            throw new DataAccessException(e);
-        }
+            """, operation, JdbcTemplate.array("TEXT", roles));
     }
 
     public void removePermissions(String operation, Set<String> roles) {
-        try(
-                final var connection = dataSource.getConnection();
-                final var statement = connection.prepareStatement("""
+        // language=PostgreSQL
+        template.update("""
          DELETE FROM permissions WHERE operation = ? AND role_id IN (SELECT r.id FROM roles r WHERE r.name = ANY(?) )
-            """, Statement.NO_GENERATED_KEYS );
-        ) {
-            Array rolesArray = connection.createArrayOf("TEXT", roles.toArray(String[]::new));
-
-            var index = 0;
-            statement.setString(++index, operation);
-            statement.setArray(++index, rolesArray);
-            statement.executeUpdate();
-
-        } catch (SQLException e) {
-            throw new DataAccessException(e);
-        }
+            """, operation, JdbcTemplate.array("TEXT", roles));
     }
 
 
     public Map<String, Map<String, Boolean>> findRoles(Map<String, Boolean> attributes) {
-        Map<String, Map<String, Boolean>> result = new HashMap<>();
-        try (
-                final var connection = dataSource.getConnection();
-                final var statement = connection.prepareStatement("SELECT *  FROM roles", Statement.NO_GENERATED_KEYS);
-        ){
-            try (
-                final var resultSet = statement.executeQuery();
-            ) {
-                while (resultSet.next()) {
-                   result.put(resultSet.getString(AppParams.rolePropertyNAME()),
-                            Map.of(
-                                    AppParams.rolePropertyACTIVE(),     resultSet.getBoolean(AppParams.rolePropertyACTIVE()),
-                                    AppParams.roleAttributeADMIN(),     resultSet.getBoolean(AppParams.roleAttributeADMIN()),
-                                    AppParams.roleAttributeCHIEF(),     resultSet.getBoolean(AppParams.roleAttributeCHIEF()),
-                                    AppParams.roleAttributeDOCTOR(),    resultSet.getBoolean(AppParams.roleAttributeDOCTOR()),
-                                    AppParams.roleAttributePATIENT(),   resultSet.getBoolean(AppParams.roleAttributePATIENT())
-                                   )
-                            );
-                }
-
-                return result.entrySet().stream().filter(r -> r.getValue().entrySet().stream().allMatch(a -> attributes.containsKey(a.getKey()) ? attributes.get(a.getKey()) == a.getValue() : true)).collect(Collectors.toMap(r -> r.getKey(), r -> r.getValue()));
-//                return result.entrySet().stream().filter(r -> r.getValue().entrySet().stream().anyMatch(a -> attributes.containsKey(a.getKey()) ? attributes.get(a.getKey()) == a.getValue() : false)).collect(Collectors.toMap(r -> r.getKey(), r -> r.getValue()));
+        final var result = toMap(template.query("SELECT *  FROM roles", roleAttributesMapper()));
 
-            }
-        }catch (SQLException e) {
-            throw new DataAccessException(e);
-        }
+        return result.entrySet().stream().filter(r -> r.getValue().entrySet().stream().allMatch(a -> attributes.containsKey(a.getKey()) ? attributes.get(a.getKey()) == a.getValue() : true)).collect(Collectors.toMap(r -> r.getKey(), r -> r.getValue()));
+//        return result.entrySet().stream().filter(r -> r.getValue().entrySet().stream().anyMatch(a -> attributes.containsKey(a.getKey()) ? attributes.get(a.getKey()) == a.getValue() : false)).collect(Collectors.toMap(r -> r.getKey(), r -> r.getValue()));
     }
 
     public long appendRole(Map<String, ?> attributes) {
-        try (
-            final var connection = dataSource.getConnection();
-            final var statement = connection.prepareStatement("INSERT INTO roles(" +
-                    AppParams.rolePropertyNAME()    +   ", "+
-                    AppParams.rolePropertyACTIVE()  +   ", " +
-                    AppParams.roleAttributeADMIN()  +   ", " +
-                    AppParams.roleAttributeCHIEF()  +   ", " +
-                    AppParams.roleAttributeDOCTOR() +   ", " +
-                    AppParams.roleAttributePATIENT()+   ") VALUES (?, ?, ?, ?, ?, ?)", Statement.RETURN_GENERATED_KEYS);
-        ) {
-            var index = 0;
-            statement.setString(++index,  (String) attributes.get(AppParams.rolePropertyNAME()) );
-            statement.setBoolean(++index, (Boolean) attributes.get(AppParams.rolePropertyACTIVE()) );
-            statement.setBoolean(++index, (Boolean) attributes.get(AppParams.roleAttributeADMIN()) );
-            statement.setBoolean(++index, (Boolean) attributes.get(AppParams.roleAttributeCHIEF()) );
-            statement.setBoolean(++index, (Boolean) attributes.get(AppParams.roleAttributeDOCTOR()) );
-            statement.setBoolean(++index, (Boolean) attributes.get(AppParams.roleAttributePATIENT()) );
-            statement.executeUpdate();
-            final var keys = statement.getGeneratedKeys();
-            if (!keys.next()) {
-                throw new DataAccessException("no keys in result");
-            }
-            return keys.getLong(1);
-        } catch (SQLException e) {
-            throw new DataAccessException(e);
-        }
+        return template.queryForOptional("INSERT INTO roles(" +
+                        AppParams.rolePropertyNAME()    +   ", "+
+                        AppParams.rolePropertyACTIVE()  +   ", " +
+                        AppParams.roleAttributeADMIN()  +   ", " +
+                        AppParams.roleAttributeCHIEF()  +   ", " +
+                        AppParams.roleAttributeDOCTOR() +   ", " +
+                        AppParams.roleAttributePATIENT()+   ") VALUES (?, ?, ?, ?, ?, ?) RETURNING id",
+                RowMapper.longColumn("id"),
+                (String) attributes.get(AppParams.rolePropertyNAME()),
+                (Boolean) attributes.get(AppParams.rolePropertyACTIVE()),
+                (Boolean) attributes.get(AppParams.roleAttributeADMIN()),
+                (Boolean) attributes.get(AppParams.roleAttributeCHIEF()),
+                (Boolean) attributes.get(AppParams.roleAttributeDOCTOR()),
+                (Boolean) attributes.get(AppParams.roleAttributePATIENT())
+        ).orElseThrow(() -> new DataAccessException("no keys in result"));
     }
 
 
     public long roleId(String role) {
-        try (
-                final var connection = dataSource.getConnection();
-                final var statement = connection.prepareStatement("""
-                    SELECT id FROM roles WHERE name = ? 
-                    """, Statement.NO_GENERATED_KEYS);
-        ){
-            var index = 0;
-            statement.setString(++index,  role);
-            try (
-                    final var resultSet = statement.executeQuery();
-            ) {
-                return resultSet.next() ? resultSet.getLong("id") : 0L;
-            }
-        }catch (SQLException e) {
-            throw new DataAccessException(e);
-        }
+        // language=PostgreSQL
+        return template.queryForOptional("""
+                    SELECT id FROM roles WHERE name = ?
+                    """, RowMapper.longColumn("id"), role)
+                .orElse(0L);
     }
 
     public void removeRole(long id) {
-        try(
-            final var connection = dataSource.getConnection();
-            final var statement = connection.prepareStatement("""
+        // language=PostgreSQL
+        template.update("""
                     DELETE FROM roles WHERE id = ?
-            """, Statement.NO_GENERATED_KEYS );
-        ) {
-
-            var index = 0;
-            statement.setLong(++index, id);
-            statement.executeUpdate();
-
-        } catch (SQLException e) {
-            throw new DataAccessException(e);
-        }
+            """, id);
     }
 
 ///////////////////////////////////////////////////////////////////////////////////////////////////////////////  I N I T
 
+    public long aclVersion() {
+        // language=PostgreSQL
+        return template.queryForOptional("SELECT version FROM acl_version", RowMapper.longColumn("version"))
+                .orElse(0L);
+    }
+
     public Map<String, Map<String, Boolean>> initRoleAttributes() {
-        Map<String, Map<String, Boolean>> result = new HashMap<>();
-        try (
-                final var connection = dataSource.getConnection();
-                final var statement = connection.prepareStatement("SELECT *  FROM roles", Statement.NO_GENERATED_KEYS);
-        ){
-            try (
-                    final var resultSet = statement.executeQuery();
-            ) {
-                while (resultSet.next()) {
-                    result.put(
-                            resultSet.getString(AppParams.rolePropertyNAME()),
-                                    Map.of( AppParams.rolePropertyACTIVE(),  resultSet.getBoolean(AppParams.rolePropertyACTIVE()),
-                                            AppParams.roleAttributeADMIN(),   resultSet.getBoolean(AppParams.roleAttributeADMIN()),
-                                            AppParams.roleAttributeCHIEF(),   resultSet.getBoolean(AppParams.roleAttributeCHIEF()),
-                                            AppParams.roleAttributeDOCTOR(),   resultSet.getBoolean(AppParams.roleAttributeDOCTOR()),
-                                            AppParams.roleAttributePATIENT(),   resultSet.getBoolean(AppParams.roleAttributePATIENT())
-                                           )
-                                );
-                }
-            }
-        }catch (SQLException e) {
-            throw new DataAccessException(e);
-        }
-        return result;
+        return toMap(template.query("SELECT *  FROM roles", roleAttributesMapper()));
     }
 
     public Map<String, Set<String>> initRolePermissions() {
-        Map<String, Set<String>> result = new HashMap<>();
-        try (
-                final var connection = dataSource.getConnection();
-                final var statement = connection.prepareStatement("""
+        // language=PostgreSQL
+        return toMap(template.query("""
         SELECT p.operation AS operation, ARRAY_AGG( COALESCE(r.name, ?)) AS roles FROM permissions p
         LEFT JOIN roles r on r.id = p.role_id
-        GROUP BY p.operation        
-        """, Statement.NO_GENERATED_KEYS);
-        ){
-
-            var index = 0;
-            statement.setString(++index, AppParams.roleAnonymous());
+        GROUP BY p.operation
+        """, operationRolesMapper, AppParams.roleAnonymous()));
+    }
 
-            try (
-                    final var resultSet = statement.executeQuery();
-            ) {
-                while (resultSet.next()) {
-                    result.put(
-                            resultSet.getString("operation"),
-                            Set.of((String[])resultSet.getArray("roles").getArray())
-                    );
-                }
-            }
-        }catch (SQLException e) {
-            throw new DataAccessException(e);
-        }
+    private static <V> Map<String, V> toMap(List<Map.Entry<String, V>> entries) {
+        final var result = new HashMap<String, V>();
+        entries.forEach(entry -> result.put(entry.getKey(), entry.getValue()));
         return result;
     }
 
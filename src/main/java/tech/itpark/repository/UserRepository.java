@@ -5,237 +5,267 @@ import org.springframework.stereotype.Repository;
 import tech.itpark.configuration.AppParams;
 import tech.itpark.exception.DataAccessException;
 import tech.itpark.jdbc.JdbcTemplate;
+import tech.itpark.jdbc.RowMapper;
 import tech.itpark.model.TokenAuth;
 import tech.itpark.model.User;
+import tech.itpark.crypto.TokenTime;
+import tech.itpark.security.TokenFilter;
 
-import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.*;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Repository
 @RequiredArgsConstructor
 public class UserRepository {
-  // вместо Connection работает с DataSource, который может выдавать Connection по запросу
-  private final DataSource dataSource;
-  private final JdbcTemplate template = new JdbcTemplate();
+  // вместо Connection работает с JdbcTemplate, который сам берёт и возвращает Connection из DataSource
+  private final JdbcTemplate template;
+  private final TokenFilter tokenFilter;
+
+  private boolean tokenDigestStorage; // tokens_digest (SHA-256 of token) instead of tokens
+
+  private static final RowMapper<User> userMapper = resultSet -> {
+    final var id = resultSet.findColumn("id");
+    final var login = resultSet.findColumn("login");
+    final var password = resultSet.findColumn("password");
+    final var secret = resultSet.findColumn("secret");
+    final var removed = resultSet.findColumn("removed");
+    final var roles = resultSet.findColumn("roles");
+    final var firstName = resultSet.findColumn("firstName");
+    final var secondName = resultSet.findColumn("secondName");
+    final var description = resultSet.findColumn("description");
+    return rs -> new User(
+            rs.getLong(id),
+            rs.getString(login),
+            rs.getString(password),
+            rs.getString(secret),
+            rs.getBoolean(removed),
+            Set.of((String[]) rs.getArray(roles).getArray()),
+            rs.getString(firstName),
+            rs.getString(secondName),
+            rs.getString(description)
+    );
+  };
+
+  private static final RowMapper<Set<String>> rolesMapper = resultSet -> {
+    final var roles = resultSet.findColumn("roles");
+    return rs -> Set.of((String[]) rs.getArray(roles).getArray());
+  };
+
+  // digest storage keeps reading (and touching) sessions of the tokens table, it is left as it is: switching storage,
+  // or nodes of both kinds during a rolling deploy, don't log users out (tokens issued in digest mode can't be
+  // recovered from their digest, so they are not valid on nodes in text mode)
+  public void initTokenStorage(boolean tokenDigestStorage) {
+    this.tokenDigestStorage = tokenDigestStorage;
+  }
 
 
   public User save(User user) {
-    try (
-            final var connection = dataSource.getConnection();
-            final var statement = connection.prepareStatement("""
-                INSERT INTO users(login, password, secret) VALUES (?, ?, ?);
-            """, Statement.RETURN_GENERATED_KEYS); // альтернатива RETURNING
-    ) {
-      var index = 0;
-      statement.setString(++index, user.getLogin());
-      statement.setString(++index, user.getPassword());
-      statement.setString(++index, user.getSecret());
-      statement.executeUpdate();
-
-      final var keys = statement.getGeneratedKeys();
-      if (!keys.next()) {
-        throw new DataAccessException("no keys in result");
-      }
+    // language=PostgreSQL
+    final var id = template.queryForOptional("""
+                INSERT INTO users(login, password, secret) VALUES (?, ?, ?) RETURNING id
+            """, RowMapper.longColumn("id"), user.getLogin(), user.getPassword(), user.getSecret())
+            .orElseThrow(() -> new DataAccessException("no keys in result"));
 
-      user.setId(keys.getLong(1));
+    user.setId(id);
 
-      return user;
-    } catch (SQLException e) {
-      throw new DataAccessException(e);
-    }
+    return user;
   }
 
   public void remove(User user, Boolean removed) {
-    try (
-            final var statement = dataSource.getConnection().prepareStatement("UPDATE users SET removed = ? WHERE id = ?")
-    ) {
-      var index = 0;
-      statement.setBoolean(++index,  removed);
-      statement.setLong(++index,  user.getId());
-      statement.executeUpdate();
-    } catch (SQLException e) {
-      throw new DataAccessException(e);
-    }
+    // language=PostgreSQL
+    template.update("UPDATE users SET removed = ? WHERE id = ?", removed, user.getId());
+  }
+
+  private Optional<User> get(Optional<Long> id, Optional<String> login, Optional<String> token, String roleAnonymous) {
+    return get(id, login, token, roleAnonymous, tokenDigestStorage);
   }
 
-  private Optional<User> get(Optional<String> login, Optional<String> token, String roleAnonymous) {
-    try (
-            final var connection = dataSource.getConnection();
-            final var statement = connection.prepareStatement("""
+  private Optional<User> get(Optional<Long> id, Optional<String> login, Optional<String> token, String roleAnonymous,
+                             boolean digestTable) {
+    // language=PostgreSQL
+    return template.queryForOptional("""
         SELECT u.id AS id, u.login AS login, u.password AS password, u.secret AS secret, u.removed AS removed,
           COALESCE(ui.firstname, '') AS firstName, COALESCE(ui.secondname, '') AS secondName, COALESCE(ui.description, '') AS description,
           ARRAY_AGG( COALESCE(r.name, ?)) AS roles FROM  users u
         LEFT JOIN user_roles u_r ON (u.id = u_r.user_id AND u_r.active)
         LEFT JOIN roles r on r.id = u_r.role_id
         LEFT JOIN user_info ui on u.id = ui.user_id
-        LEFT JOIN tokens t ON u.id = t.userid
-          WHERE (?  OR u.login = ?) AND (? OR t.token = ?)
+        LEFT JOIN %s t ON u.id = t.userid
+          WHERE (? OR u.id = ?) AND (?  OR u.login = ?) AND (? OR (t.%s = ? AND t.expires > CURRENT_TIMESTAMP))
         GROUP BY u.id, ui.firstname, ui.secondname, ui.description
-          """);
-    ) {
-      var index = 0;
-      statement.setString(++index, roleAnonymous);
-      statement.setBoolean(++index, login.isEmpty());
-      statement.setString(++index, login.isPresent() ? login.get() : "");
-      statement.setBoolean(++index, token.isEmpty());
-      statement.setString(++index, token.isPresent() ? token.get() : "");
-      try (
-              final var resultSet = statement.executeQuery();
-      ) {
-        return resultSet.next() ? Optional.of(
-                new User(
-                        resultSet.getLong("id"),
-                        resultSet.getString("login"),
-                        resultSet.getString("password"),
-                        resultSet.getString("secret"),
-                        resultSet.getBoolean("removed"),
-                        Set.of((String[])resultSet.getArray("roles").getArray()),
-                        resultSet.getString("firstName"),
-                        resultSet.getString("secondName"),
-                        resultSet.getString("description")                )
-        ) : Optional.empty();
-      }
-    } catch (SQLException e) {
-      throw new DataAccessException(e);
-    }
+          """.formatted(digestTable ? "tokens_digest" : "tokens", digestTable ? "digest" : "token"),
+            userMapper,
+            roleAnonymous,
+            id.isEmpty(), id.orElse(0L),
+            login.isEmpty(), login.orElse(""),
+            token.isEmpty(), digestTable ? digest(token.orElse("")) : token.orElse(""));
+  }
 
+  public Optional<User> getById(long id) {
+    return id > 0 ? get(Optional.of(id), Optional.empty(), Optional.empty(), AppParams.roleAnonymous()) : Optional.empty();
   }
 
   public Optional<User> getByLogin(String login) {
-    return login != null ? get(Optional.of(login) , Optional.empty(), AppParams.roleAnonymous()) : Optional.empty();
+    return login != null ? get(Optional.empty(), Optional.of(login) , Optional.empty(), AppParams.roleAnonymous()) : Optional.empty();
   }
 
   public Optional<User> getByToken(String token) {
-    return token != null ? get(Optional.empty(), Optional.of(token), AppParams.roleAnonymous()) : Optional.empty();
+    if (token == null) {
+      return Optional.empty();
+    }
+    final var user = get(Optional.empty(), Optional.empty(), Optional.of(token), AppParams.roleAnonymous());
+    if (user.isPresent() || !tokenDigestStorage) {
+      return user;
+    }
+    // session issued in text mode
+    return get(Optional.empty(), Optional.empty(), Optional.of(token), AppParams.roleAnonymous(), false);
   }
 
 
 
 
   public void updatePassword(User user) {
-    try (
-      final var statement = dataSource.getConnection().prepareStatement("UPDATE users SET password = ? WHERE id = ?")
-    ) {
-      var index = 0;
-      statement.setString(++index,user.getPassword());
-      statement.setLong(++index,  user.getId());
-      statement.executeUpdate();
-    } catch (SQLException e) {
-      throw new DataAccessException(e);
-    }
+    // language=PostgreSQL
+    template.update("UPDATE users SET password = ? WHERE id = ?", user.getPassword(), user.getId());
   }
 
   public void updateSecret(User user) {
-    try (
-      final var statement = dataSource.getConnection().prepareStatement("UPDATE users SET secret = ? WHERE id = ?")
-    ) {
-      var index = 0;
-      statement.setString(++index,user.getSecret());
-      statement.setLong(++index,  user.getId());
-      statement.executeUpdate();
-    } catch (SQLException e) {
-      throw new DataAccessException(e);
-    }
+    // language=PostgreSQL
+    template.update("UPDATE users SET secret = ? WHERE id = ?", user.getSecret(), user.getId());
   }
 
 
 
 
 
-  public void saveToken(TokenAuth auth) {
-    try (
-            final var conn = dataSource.getConnection();
-    ) {
+  public void saveToken(TokenAuth auth, long ttlSeconds) {
+    if (tokenDigestStorage) {
       // language=PostgreSQL
-      template.update(conn,"INSERT INTO tokens(userId, token) VALUES (?, ?) ON CONFLICT (userId) DO UPDATE SET token = ?",
-              auth.getUserId(), auth.getToken(), auth.getToken());
-    } catch (SQLException e) {
-      throw new DataAccessException(e);
+      template.update("""
+              INSERT INTO tokens_digest(userId, digest, expires) VALUES (?, ?, CURRENT_TIMESTAMP + make_interval(secs => ?))
+              ON CONFLICT (userId) DO UPDATE SET digest = EXCLUDED.digest, expires = EXCLUDED.expires
+              """, auth.getUserId(), digest(auth.getToken()), ttlSeconds);
+      // one session per user: the new one replaces a session issued in text mode
+      // language=PostgreSQL
+      template.update("DELETE FROM tokens WHERE userId = ?;", auth.getUserId());
+    } else {
+      // language=PostgreSQL
+      template.update("""
+              INSERT INTO tokens(userId, token, expires) VALUES (?, ?, CURRENT_TIMESTAMP + make_interval(secs => ?))
+              ON CONFLICT (userId) DO UPDATE SET token = EXCLUDED.token, expires = EXCLUDED.expires
+              """, auth.getUserId(), auth.getToken(), ttlSeconds);
+    }
+    tokenFilter.put(tokenKey(auth.getToken()));
+  }
+
+  // false -> token is definitely not in tokens table, no need to query
+  public boolean mightHaveToken(String token) {
+    return tokenFilter.mightContain(tokenKey(token), TokenTime.issuedAt(token));
+  }
+
+  // deleted tokens stay in the filter until the next rebuild, tokens are read in chunks (cursor mode)
+  public void rebuildTokenFilter() {
+    tokenFilter.rebuild(sink -> {
+      if (tokenDigestStorage) {
+        template.queryForEach("SELECT digest FROM tokens_digest", resultSet -> rs -> rs.getBytes(1), sink);
+        template.queryForEach("SELECT token FROM tokens", resultSet -> rs -> digest(rs.getString(1)), sink);
+      } else {
+        template.queryForEach("SELECT token FROM tokens", resultSet -> rs -> tokenKey(rs.getString(1)), sink);
+      }
+    });
+  }
+
+  private byte[] tokenKey(String token) {
+    return tokenDigestStorage ? digest(token) : token.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static byte[] digest(String token) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
     }
   }
 
   public void deleteToken(TokenAuth auth) {
-    try(
-            final var conn = dataSource.getConnection();
-    ) {
+    if (tokenDigestStorage) {
       // language=PostgreSQL
-      template.update(conn, "DELETE FROM tokens WHERE userId = ? AND token = ?;",
-              auth.getUserId(), auth.getToken());
-    } catch (SQLException e) {
-      throw new DataAccessException(e);
+      template.update("DELETE FROM tokens_digest WHERE userId = ? AND digest = ?;",
+              auth.getUserId(), digest(auth.getToken()));
     }
+    // language=PostgreSQL
+    template.update("DELETE FROM tokens WHERE userId = ? AND token = ?;",
+            auth.getUserId(), auth.getToken());
+  }
+
+  // sliding expiry: lastSeen (user id -> epoch millis) + ttl, one batch per flush
+  public void touchTokens(Map<Long, Long> lastSeen, long ttlSeconds) {
+    final var batch = lastSeen.entrySet().stream()
+        .map(entry -> new Object[]{new Timestamp(entry.getValue() + ttlSeconds * 1000), entry.getKey()})
+        .collect(Collectors.toList());
+    if (tokenDigestStorage) {
+      template.batchUpdate("UPDATE tokens_digest SET expires = GREATEST(expires, ?) WHERE userId = ?", batch);
+    }
+    template.batchUpdate("UPDATE tokens SET expires = GREATEST(expires, ?) WHERE userId = ?", batch);
+  }
+
+  // deletes at most chunk expired tokens, returns number of deleted rows
+  public int sweepExpiredTokens(int chunk) {
+    // language=PostgreSQL
+    return template.update("""
+            DELETE FROM %1$s WHERE ctid = ANY(ARRAY(SELECT ctid FROM %1$s WHERE expires < CURRENT_TIMESTAMP LIMIT ?))
+            """.formatted(tokenDigestStorage ? "tokens_digest" : "tokens"), chunk);
+  }
+
+  public void saveRevocation(long userId, Timestamp revokedAt) {
+    // language=PostgreSQL
+    template.update("""
+                    INSERT INTO token_revocations(user_id, revoked_at) VALUES (?, ?)
+                    ON CONFLICT (user_id) DO UPDATE SET revoked_at = GREATEST(token_revocations.revoked_at, EXCLUDED.revoked_at)
+                    """, userId, revokedAt);
+  }
+
+  public Map<Long, Long> getRevocations(Timestamp since) {
+    // language=PostgreSQL
+    return template.query("SELECT user_id, revoked_at FROM token_revocations WHERE revoked_at > ?",
+            resultSet -> {
+              final var userId = resultSet.findColumn("user_id");
+              final var revokedAt = resultSet.findColumn("revoked_at");
+              return rs -> Map.entry(rs.getLong(userId), rs.getTimestamp(revokedAt).getTime());
+            },
+            since).stream()
+            .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
   }
 
 /////////////////////////////////////////////////////////////////////////////////////////////////////////////  R O L E S
 
   public Set<String> getUserRoles(User user, int active){
-    try (
-            final var connection = dataSource.getConnection();
-            final var statement = connection.prepareStatement("""
+    // language=PostgreSQL
+    return template.queryForOptional("""
           SELECT u_r.user_id id, ARRAY_AGG(r.name) roles FROM user_roles u_r
           JOIN roles r ON u_r.role_id = r.id  AND (u_r.active = ? OR ?)
           WHERE u_r.user_id = ?
           GROUP BY u_r.user_id
-        """, Statement.NO_GENERATED_KEYS);
-    ){
-      var index = 0;
-      statement.setBoolean(++index, active > 0);
-      statement.setBoolean(++index, active == 0);
-      statement.setLong(++index, user.getId());
-      try (
-        final var resultSet = statement.executeQuery();
-      ) {
-        if (resultSet.next()) {
-          return Set.of((String[])resultSet.getArray("roles").getArray());
-        }
-        return Set.of();
-      }
-    }catch (SQLException e) {
-      throw new DataAccessException(e);
-    }
+        """, rolesMapper, active > 0, active == 0, user.getId())
+            .orElse(Set.of());
   }
 
 
   public List<User> getUsersByRoles(Set<String> roles, int active) {
-    List<User> result = new ArrayList<>();
-    try (
-            final var connection = dataSource.getConnection();
-            final var statement = connection.prepareStatement("""
+    // language=PostgreSQL
+    return template.query("""
         SELECT u.id AS id, u.login AS login, '********' AS password, '********' AS secret, u.removed AS removed,
-         array_agg(r.name) AS roles FROM  users u
+         array_agg(r.name) AS roles, '' AS firstName, '' AS secondName, '' AS description FROM  users u
         LEFT JOIN user_roles u_r ON u.id = u_r.user_id
         LEFT JOIN roles r on r.id = u_r.role_id
-        WHERE u_r.role_id IN (SELECT r.id FROM roles r WHERE r.name = ANY (?)) AND (u_r.active = ? OR ?)  
+        WHERE u_r.role_id IN (SELECT r.id FROM roles r WHERE r.name = ANY (?)) AND (u_r.active = ? OR ?)
         GROUP BY u.id
-        """, Statement.NO_GENERATED_KEYS);
-    ){
-      String[] arrayString = roles.toArray(String[]::new);
-      Array arrayRoles = connection.createArrayOf("TEXT", arrayString);
-
-      var index = 0;
-      statement.setArray(++index,  arrayRoles);
-      statement.setBoolean(++index, active > 0);
-      statement.setBoolean(++index, active == 0);
-
-      try (
-         final var resultSet = statement.executeQuery();
-      ) {
-        while (resultSet.next()) {
-          result.add(new User(resultSet.getLong("id"),
-                              resultSet.getString("login"),
-                              resultSet.getString("password"),
-                              resultSet.getString("secret"),
-                              resultSet.getBoolean("removed"),
-                              Set.of((String[])resultSet.getArray("roles").getArray()),
-                             "","","")
-                    );
-        }
-      }
-    }catch (SQLException e) {
-      throw new DataAccessException(e);
-    }
-    return result;
+        """, userMapper, JdbcTemplate.array("TEXT", roles), active > 0, active == 0);
   }
 
 
@@ -245,27 +275,14 @@ public class UserRepository {
       return;
     }
     Map<String, Boolean> rolesActive = AppParams.getRolesActiveDefaults(roles);
-    try (
-            final var connection = dataSource.getConnection();
-            final var statement = connection.prepareStatement("""
-          INSERT INTO user_roles(user_id, role_id, active) 
+    // language=PostgreSQL
+    template.batchUpdate("""
+          INSERT INTO user_roles(user_id, role_id, active)
           SELECT ?, r.id, ? FROM roles r WHERE r.name = ?
-            """, Statement.NO_GENERATED_KEYS);
-      ) {
-
-      for (Map.Entry<String, Boolean> entry : rolesActive.entrySet()) {
-        var index = 0;
-        statement.setLong(++index, id);
-        statement.setBoolean(++index, entry.getValue());
-        statement.setString(++index, entry.getKey());
-        statement.addBatch();
-      }
-
-      statement.executeBatch();
-
-    } catch (SQLException e) {
-      throw new DataAccessException(e);
-    }
+            """,
+            rolesActive.entrySet().stream()
+                    .map(entry -> new Object[]{id, entry.getValue(), entry.getKey()})
+                    .collect(Collectors.toList()));
   }
 
 
@@ -274,113 +291,78 @@ public class UserRepository {
     if (id == 0 || roles.size() == 0){
       return;
     }
-    try(
-      final var connection = dataSource.getConnection();
-    ) {
-      Array arrayRoles = connection.createArrayOf("TEXT", roles.toArray(String[]::new));
-      // language=PostgreSQL
-      template.update(connection, """
+    // language=PostgreSQL
+    template.update("""
          DELETE FROM user_roles WHERE user_id = ? AND role_id IN (SELECT r.id FROM roles r WHERE r.name = ANY(?) )
-                        """, id , arrayRoles);
-    } catch (SQLException e) {
-      throw new DataAccessException(e);
-    }
+                        """, id , JdbcTemplate.array("TEXT", roles));
   }
 
 
   public void activeUserRoles(long id, Set<String> roles, boolean active) {
-    try (
-            final var connection = dataSource.getConnection();
-            final var statement = connection.prepareStatement("""
-        UPDATE user_roles SET active = ? WHERE user_id = ? AND role_id IN (SELECT r.id FROM roles r WHERE r.name = ANY(?)) 
-        """);
-    ) {
-      String[] arrayString = roles.toArray(String[]::new);
-      Array arrayRoles = connection.createArrayOf("TEXT", arrayString);
-
-      var index = 0;
-      statement.setBoolean(++index, active);
-      statement.setLong(++index, id);
-      statement.setArray(++index,  arrayRoles);
-
-      statement.executeUpdate();
-    } catch (SQLException e) {
-      throw new DataAccessException(e);
-    }
+    // language=PostgreSQL
+    template.update("""
+        UPDATE user_roles SET active = ? WHERE user_id = ? AND role_id IN (SELECT r.id FROM roles r WHERE r.name = ANY(?))
+        """, active, id, JdbcTemplate.array("TEXT", roles));
   }
 
 ///////////////////////////////////////////////////////////////////////////////////////////////////////////////  I N F O
 
+  // appointments keep their own copy of the names, the user is queued for AppointmentRepository.refreshUserInfo
   public void setUserInfo(long id, String firstName, String secondName, String description) {
-    try (
-            final var conn = dataSource.getConnection();
-    ) {
+    template.transaction(conn -> {
       // language=PostgreSQL
-      template.update(conn,"""
+      template.update(conn, """
                       INSERT INTO user_info(user_id, firstName, secondName, description)
                       VALUES (?, ?, ?, ?) ON CONFLICT (user_id) DO UPDATE SET firstName = ?, secondName = ?, description = ?
                       """, id, firstName, secondName, description,            firstName,     secondName,     description);
-    } catch (SQLException e) {
-      throw new DataAccessException(e);
-    }
-
+      // language=PostgreSQL
+      template.update(conn, """
+                      INSERT INTO appointment_info_refresh(user_id) VALUES (?) ON CONFLICT (user_id) DO NOTHING
+                      """, id);
+      return null;
+    });
   }
 
-  public List<User> findUsers(Set<String> rolesFilter, Set<String> infoFilter) {
-    List<User> result = new ArrayList<>();
-    try (
-            final var connection = dataSource.getConnection();
-            final var statement = connection.prepareStatement("""
-        SELECT u.id AS id, u.login AS login, '********' AS password, '********' AS secret,
+  // language=PostgreSQL
+  private static final String FIND_USERS = """
+        SELECT u.id AS id, u.login AS login, '********' AS password, '********' AS secret, FALSE AS removed,
         COALESCE(ui.firstname, '') AS firstName, COALESCE(ui.secondname, '') AS secondName, COALESCE(ui.description, '') AS description,
         ARRAY_AGG( COALESCE(r.name, ?)) AS roles
         FROM  users u
           LEFT JOIN user_roles u_r ON u.id = u_r.user_id AND u_r.active
           LEFT JOIN roles r on r.id = u_r.role_id
           LEFT JOIN user_info ui on u.id = ui.user_id
-        WHERE NOT u.removed AND
+        WHERE NOT u.removed AND u.id > ? AND
               (?  OR u_r.role_id IN (SELECT rr.id FROM roles rr WHERE rr.name = ANY (?))) AND
               (?  OR LOWER(ui.firstName) LIKE ANY (?) OR LOWER(ui.secondname) LIKE ANY (?) OR LOWER(ui.description) LIKE ANY (?))
         GROUP BY u.id, ui.firstname, ui.secondname, ui.description
-        """, Statement.NO_GENERATED_KEYS);
-    ){
-      String[] rolesFilterStringArray = rolesFilter.toArray(String[]::new);
-      Array rolesConnectionArray = connection.createArrayOf("TEXT", rolesFilterStringArray);
-
-      String[] infoFilterStringArray = infoFilter.stream().map(o -> "%" + o.toLowerCase() + "%").toArray(String[]::new);
-      Array infoConnectionArray = connection.createArrayOf("TEXT", infoFilterStringArray);
-
-      var index = 0;
-      statement.setString(++index,  AppParams.roleAnonymous());
-      statement.setBoolean(++index, rolesFilterStringArray.length == 0);
-      statement.setArray(++index,   rolesConnectionArray);
-      statement.setBoolean(++index, infoFilterStringArray.length == 0);
-      statement.setArray(++index,   infoConnectionArray);
-      statement.setArray(++index,   infoConnectionArray);
-      statement.setArray(++index,   infoConnectionArray);
-
-      try (
-        final var resultSet = statement.executeQuery();
-      ) {
-        while (resultSet.next()) {
-          result.add(new User(
-                  resultSet.getLong("id"),
-                  resultSet.getString("login"),
-                  resultSet.getString("password"),
-                  resultSet.getString("secret"),
-                  false,
-                  Set.of((String[])resultSet.getArray("roles").getArray()),
-                  resultSet.getString("firstName"),
-                  resultSet.getString("secondName"),
-                  resultSet.getString("description")
-                              )
-                    );
-        }
-      }
-    }catch (SQLException e) {
-      throw new DataAccessException(e);
-    }
-    return result;
+        ORDER BY u.id
+        LIMIT ?
+        """;
+
+  // keyset page: users with id > afterId in id order
+  public List<User> findUsers(Set<String> rolesFilter, Set<String> infoFilter, long afterId, int limit) {
+    return template.query(FIND_USERS, userMapper, findUsersParams(rolesFilter, infoFilter, afterId, limit));
+  }
+
+  // all users in id order, read by fetch size pages of a server-side cursor and passed to consumer one by one
+  public void findUsers(Set<String> rolesFilter, Set<String> infoFilter, Consumer<User> consumer) {
+    template.queryForEach(FIND_USERS, userMapper, consumer, findUsersParams(rolesFilter, infoFilter, 0, null));
+  }
+
+  private static Object[] findUsersParams(Set<String> rolesFilter, Set<String> infoFilter, long afterId, Integer limit) {
+    // info is plain text, not a pattern: LIKE wildcards and the escape character are escaped
+    final var infoPatterns = infoFilter.stream()
+        .map(o -> "%" + o.toLowerCase(Locale.ROOT).replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%")
+        .collect(Collectors.toList());
+    final var infoArray = JdbcTemplate.array("TEXT", infoPatterns);
+    return new Object[]{
+        AppParams.roleAnonymous(),
+        afterId,
+        rolesFilter.isEmpty(), JdbcTemplate.array("TEXT", rolesFilter),
+        infoPatterns.isEmpty(), infoArray, infoArray, infoArray,
+        limit
+    };
   }
 
 }
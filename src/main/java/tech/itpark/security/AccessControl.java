@@ -0,0 +1,30 @@
+package tech.itpark.security;
+
+import java.util.Map;
+
+// current route permissions together with the acl_version they were built from, swapped as a whole
+public class AccessControl {
+  private volatile Snapshot snapshot = new Snapshot(-1, RoutePermissions.compile(Map.of()));
+
+  public boolean allows(String operation, Auth auth) {
+    return snapshot.permissions.allows(operation, auth);
+  }
+
+  public long version() {
+    return snapshot.version;
+  }
+
+  public void update(long version, RoutePermissions permissions) {
+    snapshot = new Snapshot(version, permissions);
+  }
+
+  private static class Snapshot {
+    private final long version;
+    private final RoutePermissions permissions;
+
+    private Snapshot(long version, RoutePermissions permissions) {
+      this.version = version;
+      this.permissions = permissions;
+    }
+  }
+}
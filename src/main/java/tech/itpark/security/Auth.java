@@ -12,6 +12,11 @@ public interface Auth {
   long getId();
   Set<String> getRoles();
 
+  // active roles as bits of RoleBits
+  default long getRoleMask() {
+    return RoleBits.mask(getRoles());
+  }
+
   default boolean hasRole(String role) {
     return hasAnyRole(role);
   }
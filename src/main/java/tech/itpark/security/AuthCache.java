@@ -0,0 +1,110 @@
+package tech.itpark.security;
+
+import tech.itpark.model.User;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// token -> User (id + active roles + info), bounded by size and evicted by TTL
+public class AuthCache {
+  private final int maxSize;
+  private final long ttlMillis;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  public AuthCache(int maxSize, long ttlSeconds) {
+    this.maxSize = maxSize;
+    this.ttlMillis = ttlSeconds * 1000;
+  }
+
+  public Optional<User> get(String token) {
+    if (token == null || maxSize <= 0) {
+      return Optional.empty();
+    }
+    final var entry = entries.get(token);
+    if (entry == null) {
+      misses.increment();
+      return Optional.empty();
+    }
+    if (entry.expiresAt < System.currentTimeMillis()) {
+      entries.remove(token, entry);
+      evictions.increment();
+      misses.increment();
+      return Optional.empty();
+    }
+    hits.increment();
+    return Optional.of(entry.user);
+  }
+
+  public void put(String token, User user) {
+    if (token == null || maxSize <= 0) {
+      return;
+    }
+    if (entries.size() >= maxSize) {
+      evict();
+    }
+    entries.put(token, new Entry(user, System.currentTimeMillis() + ttlMillis));
+  }
+
+  public void invalidateToken(String token) {
+    if (token != null) {
+      entries.remove(token);
+    }
+  }
+
+  // one user may be cached under an old and a new token (re-login), so scan values
+  public void invalidateUser(long userId) {
+    entries.values().removeIf(entry -> entry.user.getId() == userId);
+  }
+
+  public void invalidateAll() {
+    entries.clear();
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  // first drop expired entries, if the cache is still full drop ~10% of it
+  private void evict() {
+    final var now = System.currentTimeMillis();
+    final var sizeBefore = entries.size();
+    entries.values().removeIf(entry -> entry.expiresAt < now);
+    if (entries.size() >= maxSize) {
+      var toRemove = Math.max(1, maxSize / 10);
+      final var iterator = entries.keySet().iterator();
+      while (toRemove-- > 0 && iterator.hasNext()) {
+        iterator.next();
+        iterator.remove();
+      }
+    }
+    evictions.add(Math.max(0, sizeBefore - entries.size()));
+  }
+
+  private static class Entry {
+    private final User user;
+    private final long expiresAt;
+
+    private Entry(User user, long expiresAt) {
+      this.user = user;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package tech.itpark.security;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// role name -> bit (0..63); bits are never reassigned, so masks computed earlier stay valid
+public final class RoleBits {
+  private RoleBits() {
+  }
+
+  public static final int CAPACITY = Long.SIZE;
+
+  private static final Map<String, Long> bits = new ConcurrentHashMap<>();
+  private static volatile int version;
+
+  public static synchronized void register(Collection<String> roles) {
+    for (String role : roles) {
+      if (!bits.containsKey(role) && bits.size() < CAPACITY) {
+        bits.put(role, 1L << bits.size());
+      }
+    }
+    version = bits.size();
+  }
+
+  // roles without bit (registry is full) aren't included, see hasBit
+  public static long mask(Collection<String> roles) {
+    var result = 0L;
+    for (String role : roles) {
+      final var bit = bits.get(role);
+      if (bit != null) {
+        result |= bit;
+      }
+    }
+    return result;
+  }
+
+  public static boolean hasBit(String role) {
+    return bits.containsKey(role);
+  }
+
+  // changes whenever a new role gets its bit
+  public static int version() {
+    return version;
+  }
+}
@@ -0,0 +1,48 @@
+package tech.itpark.security;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+// operation -> allowed roles precompiled into a bitmask, check is a single AND
+public class RoutePermissions {
+  private final Map<String, Rule> rules;
+
+  private RoutePermissions(Map<String, Rule> rules) {
+    this.rules = rules;
+  }
+
+  public static RoutePermissions compile(Map<String, Set<String>> rolePermissions) {
+    final var result = new HashMap<String, Rule>();
+    rolePermissions.values().forEach(RoleBits::register);
+    rolePermissions.forEach((operation, roles) -> result.put(operation, new Rule(
+        RoleBits.mask(roles),
+        roles.stream().filter(r -> !RoleBits.hasBit(r)).collect(Collectors.toUnmodifiableSet())
+    )));
+    return new RoutePermissions(Map.copyOf(result));
+  }
+
+  // operations without permissions are open to everyone
+  public boolean allows(String operation, Auth auth) {
+    final var rule = rules.get(operation);
+    if (rule == null) {
+      return true;
+    }
+    if ((auth.getRoleMask() & rule.mask) != 0) {
+      return true;
+    }
+    // more than 64 roles: the rest is checked by name
+    return !rule.unmapped.isEmpty() && auth.getRoles().stream().anyMatch(rule.unmapped::contains);
+  }
+
+  private static class Rule {
+    private final long mask;
+    private final Set<String> unmapped;
+
+    private Rule(long mask, Set<String> unmapped) {
+      this.mask = mask;
+      this.unmapped = unmapped;
+    }
+  }
+}
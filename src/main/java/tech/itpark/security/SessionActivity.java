@@ -0,0 +1,34 @@
+package tech.itpark.security;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// "last seen" of sessions, coalesced in memory: many requests of a user -> one UPDATE per flush
+public class SessionActivity {
+  private final Map<Long, Long> lastSeen = new ConcurrentHashMap<>();
+
+  public void touch(long userId) {
+    lastSeen.put(userId, System.currentTimeMillis());
+  }
+
+  public void forget(long userId) {
+    lastSeen.remove(userId);
+  }
+
+  // user id -> last seen (epoch millis) since previous drain
+  public Map<Long, Long> drain() {
+    final var result = new HashMap<Long, Long>();
+    for (final var userId : lastSeen.keySet()) {
+      final var seen = lastSeen.remove(userId);
+      if (seen != null) {
+        result.put(userId, seen);
+      }
+    }
+    return result;
+  }
+
+  public int size() {
+    return lastSeen.size();
+  }
+}
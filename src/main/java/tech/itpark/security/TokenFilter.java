@@ -0,0 +1,164 @@
+package tech.itpark.security;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+// Bloom filter of valid tokens: "no" is definite (token unknown, skip database), "yes" may be false positive;
+// it knows the tokens read by the last rebuild() and the ones saved through this node since, so a token issued after
+// the rebuild started (by another node) always passes: tokens carry their issue time, see TokenTime
+public class TokenFilter {
+  private final boolean enabled;
+  private final int bitCount;
+  private final int hashCount;
+  private final long clockSkew; // millis, allowed difference of node clocks and commit delay of a saved token
+
+  private volatile AtomicLongArray bits;
+  private volatile boolean ready;   // until first rebuild every token passes
+  private volatile long coveredUntil; // tokens issued before are all known: the last rebuild start - clockSkew
+  private List<byte[]> recorded;    // puts made while rebuild is running, guarded by lock
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder passed = new LongAdder();
+  private final LongAdder recent = new LongAdder();
+
+  // capacity - expected number of tokens, falsePositiveRate - e.g. 0.01
+  public TokenFilter(boolean enabled, int capacity, double falsePositiveRate, long clockSkewSeconds) {
+    this.enabled = enabled;
+    this.clockSkew = clockSkewSeconds * 1000;
+    final var n = Math.max(1, capacity);
+    final var m = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+    bitCount = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, m));
+    hashCount = Math.max(1, (int) Math.round((double) bitCount / n * Math.log(2)));
+    bits = new AtomicLongArray((bitCount + 63) / 64);
+  }
+
+  // issuedAt - epoch millis, -1 - unknown (the token is treated as an old one)
+  public boolean mightContain(byte[] key, long issuedAt) {
+    if (!enabled || !ready) {
+      return true;
+    }
+    if (issuedAt >= coveredUntil && issuedAt <= System.currentTimeMillis() + clockSkew) {
+      recent.increment(); // may be issued by another node after the rebuild, only the database knows
+      return true;
+    }
+    final var current = bits;
+    final var h1 = hash(key);
+    final var h2 = mix(h1) | 1;
+    for (int i = 0; i < hashCount; i++) {
+      final var bit = index(h1 + i * h2);
+      if ((current.get(bit >>> 6) & (1L << bit)) == 0) {
+        rejected.increment();
+        return false;
+      }
+    }
+    passed.increment();
+    return true;
+  }
+
+  public void put(byte[] key) {
+    if (!enabled) {
+      return;
+    }
+    lock.readLock().lock();
+    try {
+      set(bits, key);
+      if (recorded != null) {
+        synchronized (recorded) {
+          recorded.add(key);
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  // source feeds every currently valid key, filter is swapped at once so readers never see a half-built one
+  public synchronized void rebuild(Consumer<Consumer<byte[]>> source) {
+    if (!enabled) {
+      return;
+    }
+    final var startedAt = System.currentTimeMillis();
+    final var pending = new ArrayList<byte[]>();
+    lock.writeLock().lock();
+    try {
+      recorded = pending;
+    } finally {
+      lock.writeLock().unlock();
+    }
+
+    final var fresh = new AtomicLongArray(bits.length());
+    var built = false;
+    try {
+      source.accept(key -> set(fresh, key));
+      built = true;
+    } finally {
+      lock.writeLock().lock();
+      try {
+        if (built) { // on failure the old filter stays
+          pending.forEach(key -> set(fresh, key)); // keys saved while the snapshot was read
+          bits = fresh;
+          coveredUntil = startedAt - clockSkew;
+          ready = true;
+        }
+        recorded = null;
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+  }
+
+  public long getRejected() {
+    return rejected.sum();
+  }
+
+  public long getPassed() {
+    return passed.sum();
+  }
+
+  public long getRecent() {
+    return recent.sum();
+  }
+
+  private void set(AtomicLongArray target, byte[] key) {
+    final var h1 = hash(key);
+    final var h2 = mix(h1) | 1;
+    for (int i = 0; i < hashCount; i++) {
+      final var bit = index(h1 + i * h2);
+      final var word = bit >>> 6;
+      final var mask = 1L << bit;
+      long value;
+      while (((value = target.get(word)) & mask) == 0 && !target.compareAndSet(word, value, value | mask)) {
+        // retry
+      }
+    }
+  }
+
+  private int index(long hash) {
+    return (int) ((hash & Long.MAX_VALUE) % bitCount);
+  }
+
+  // FNV-1a 64
+  private static long hash(byte[] key) {
+    var h = 0xcbf29ce484222325L;
+    for (byte b : key) {
+      h ^= b & 0xff;
+      h *= 0x100000001b3L;
+    }
+    return h;
+  }
+
+  // murmur3 finalizer
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
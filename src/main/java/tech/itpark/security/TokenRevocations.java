@@ -0,0 +1,31 @@
+package tech.itpark.security;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// user id -> moment of revocation, every signed token of the user issued before it is rejected
+public class TokenRevocations {
+  private final Map<Long, Long> revokedAt = new ConcurrentHashMap<>();
+
+  public boolean isRevoked(long userId, long issuedAt) {
+    final var at = revokedAt.get(userId);
+    return at != null && issuedAt < at;
+  }
+
+  public void revoke(long userId, long at) {
+    revokedAt.merge(userId, at, Math::max);
+  }
+
+  public void merge(Map<Long, Long> revocations) {
+    revocations.forEach(this::revoke);
+  }
+
+  // revocations older than the token TTL can't match any live token
+  public void prune(long olderThan) {
+    revokedAt.values().removeIf(at -> at < olderThan);
+  }
+
+  public int size() {
+    return revokedAt.size();
+  }
+}
@@ -2,16 +2,25 @@ package tech.itpark.service;
 
 import lombok.RequiredArgsConstructor;
 import org.apache.commons.lang3.RandomStringUtils;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import tech.itpark.configuration.AppParams;
 import tech.itpark.dto.*;
+import tech.itpark.exception.ConflictException;
+import tech.itpark.jdbc.KeysetCursor;
 import tech.itpark.model.Appointment;
+import tech.itpark.model.OpenSlotResult;
+import tech.itpark.model.ScheduleTemplate;
+import tech.itpark.model.TransitionResult;
 import tech.itpark.model.User;
 import tech.itpark.repository.AppointmentRepository;
 import tech.itpark.security.Auth;
 
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.LocalTime;
 import java.util.*;
+import java.util.function.Consumer;
 import java.sql.Timestamp;
 
 
@@ -19,17 +28,34 @@ import java.sql.Timestamp;
 @RequiredArgsConstructor
 public class AppointmentService{
     private final AppointmentRepository repository;
+    private final OpenSlotIndex openSlotIndex;
+    private final AvailableSlotIndex availableSlotIndex;
 
     private long minimalAppointmentTime;
     private long startAppointmentPeriod;
     private long endAppointmentPeriod;
     private long appointmentDayLimit;
-
-    public void initParams(long minimalAppointmentTime, long startAppointmentPeriod, long endAppointmentPeriod, long appointmentDayLimit) {
+    private int pageSize;
+    private int pageSizeMax;
+    private int userInfoRefreshChunk;
+    private int appointmentRetentionMonths;
+    private int openBulkMax;
+    private boolean bookingFunction;
+
+    public void initParams(long minimalAppointmentTime, long startAppointmentPeriod, long endAppointmentPeriod, long appointmentDayLimit,
+                           int pageSize, int pageSizeMax, int userInfoRefreshChunk, int appointmentRetentionMonths,
+                           int openBulkMax, boolean bookingFunction) {
         this.minimalAppointmentTime = minimalAppointmentTime;
+        this.pageSize = pageSize;
+        this.pageSizeMax = pageSizeMax;
+        this.userInfoRefreshChunk = userInfoRefreshChunk;
+        this.appointmentRetentionMonths = appointmentRetentionMonths;
+        this.openBulkMax = openBulkMax;
+        this.bookingFunction = bookingFunction;
         this.startAppointmentPeriod = startAppointmentPeriod;
         this.endAppointmentPeriod = endAppointmentPeriod;
         this.appointmentDayLimit = appointmentDayLimit;
+        repository.initSchedule(minimalAppointmentTime);
     }
 
 
@@ -48,9 +74,88 @@ public class AppointmentService{
         }
 
         Timestamp appointmentTimestamp = requestDto.getDate_time();
+        checkOpenPeriod(appointmentTimestamp);
+
+        // conflicts are found in the index without SQL, a hit is rejected as it is; slots opened by other nodes since
+        // the last reload are not in the index, the exclusion constraint rejects those
+        final var indexed = openSlotIndex.overlapping(doctor_id, appointmentTimestamp.getTime(), minimalAppointmentTime * 1000);
+        if (indexed.isPresent()) {
+            throw wrongTime(indexed.get().getId(), indexed.get().getStart());
+        }
+
+        final var appointment = new Appointment(0L,appointmentTimestamp, 0,
+                doctor_id, doctorFirstName, doctorSecondName, doctorDescription,
+                0L, "", "", "", "", "");
+        final var result = repository.open(appointment, minimalAppointmentTime);
+        if (!result.isApplied()){
+            // opened by another node since the last reload
+            openSlotIndex.add(doctor_id, result.getAppointment().getId(), result.getAppointment().getDateTime().getTime());
+            throw wrongTime(result.getAppointment());
+        }
+
+        final var id = result.getAppointment().getId();
+        if ( id == 0){
+            throw new RuntimeException("ERROR CREATING APPOINTMENT !!!");
+        }
+        openSlotIndex.add(doctor_id, id, appointmentTimestamp.getTime());
+        availableSlotIndex.available(appointment);
+
+        return new AppointmentOpenResponseDto(id);
+    }
+
+    // all slots are checked against the booking window first, then stored by one statement: a slot overlapping
+    // a stored appointment or an earlier slot of the request is reported with the conflicting id (0 - within the request)
+    public AppointmentOpenBulkResponseDto openBulk(AppointmentOpenBulkRequestDto requestDto, Auth auth) {
+        long doctor_id = auth.getId();
+        if (doctor_id <= 0){
+            throw new RuntimeException("USER NOT AUTHORIZED !!!");
+        }
+
+        User user = (User) auth;
+        if (user.getFirstName().trim().isEmpty()  || user.getSecondName().trim().isEmpty() || user.getDescription().trim().isEmpty()){
+            throw new RuntimeException("NO DOCTOR INFORMATION !!!");
+        }
+
+        final var dateTimes = requestDto.getDate_times();
+        if (dateTimes == null || dateTimes.isEmpty()){
+            throw new RuntimeException("NO APPOINTMENT TIMES !!!");
+        }
+        if (dateTimes.size() > openBulkMax){
+            throw new RuntimeException("TOO MANY APPOINTMENTS !!! Up to " + openBulkMax + " at once");
+        }
+        for (Timestamp dateTime : dateTimes) {
+            if (dateTime == null){
+                throw new RuntimeException("NO APPOINTMENT TIME !!!");
+            }
+            checkOpenPeriod(dateTime);
+        }
+
+        final var slots = repository.openBulk(user, dateTimes, minimalAppointmentTime);
+        for (OpenSlotResult slot : slots) {
+            if (slot.getId() != null){
+                openSlotIndex.add(doctor_id, slot.getId(), slot.getDate_time().getTime());
+                availableSlotIndex.available(new Appointment(slot.getId(), slot.getDate_time(), 0,
+                        doctor_id, user.getFirstName(), user.getSecondName(), user.getDescription(),
+                        0L, "", "", "", "", ""));
+            }
+        }
+        return new AppointmentOpenBulkResponseDto(slots);
+    }
+
+    private RuntimeException wrongTime(Appointment conflict) {
+        return wrongTime(conflict.getId(), conflict.getDateTime().getTime());
+    }
+
+    private RuntimeException wrongTime(long id, long dateTime) {
+        SimpleDateFormat formatter = new SimpleDateFormat("dd.MM.yyyy HH:mm");
+        return new RuntimeException("WRONG TIME !!! Conflict with other appointment No. " +
+                id + " of " + formatter.format(new Date(dateTime)));
+    }
+
+    private void checkOpenPeriod(Timestamp appointmentTimestamp) {
         java.util.Date date = new java.util.Date();
-        Timestamp startTimestamp    = new Timestamp(atStartOfDay(date).getTime() + (startAppointmentPeriod * (86400 * 1000)));
-        Timestamp endTimestamp      = new Timestamp(atEndOfDay(date).getTime() + (endAppointmentPeriod * (86400 * 1000)));
+        Timestamp startTimestamp    = openPeriodStart(date);
+        Timestamp endTimestamp      = openPeriodEnd(date);
 
         if (appointmentTimestamp.before(startTimestamp) || appointmentTimestamp.after(endTimestamp)){
             final var startDate = new Date(startTimestamp.getTime());
@@ -60,31 +165,65 @@ public class AppointmentService{
             throw new RuntimeException("WRONG PERIOD !!! Valid days from " +
                     formatter.format(startDate)  + " to " + formatter.format(endDate));
         }
+    }
 
-        Timestamp beforeTimestamp   = new Timestamp(appointmentTimestamp.getTime() - (minimalAppointmentTime * 1000));
-        Timestamp afterTimestamp    = new Timestamp(appointmentTimestamp.getTime() + (minimalAppointmentTime * 1000));
-        List<Appointment> appointments = repository.find(beforeTimestamp, afterTimestamp, Set.of(doctor_id) , Set.of(), Set.of(0),
-                true, true, false);
-        if (appointments.size() > 0){
-            final var conflictAppointmentId = appointments.get(0).getId();
-            final var conflictAppointmentDateTime = new Date(appointments.get(0).getDateTime().getTime());
-            SimpleDateFormat formatter = new SimpleDateFormat("dd.MM.yyyy HH:mm");
+    public AppointmentScheduleResponseDto getSchedule(Auth auth) {
+        final var user = scheduleOwner(auth);
+        return new AppointmentScheduleResponseDto(repository.getSchedule(user.getId()));
+    }
 
-            throw new RuntimeException("WRONG TIME !!! Conflict with other appointment No. " +
-                    conflictAppointmentId.toString() + " of " + formatter.format(conflictAppointmentDateTime));
+    // weekly templates replace one open call per slot: their slots are listed by find and stored only when booked
+    public AppointmentScheduleResponseDto setSchedule(AppointmentScheduleRequestDto requestDto, Auth auth) {
+        final var user = scheduleOwner(auth);
+        final var templates = requestDto.getTemplates() == null ? List.<ScheduleTemplate>of() : requestDto.getTemplates();
+        for (ScheduleTemplate template : templates) {
+            final LocalTime start;
+            final LocalTime end;
+            try {
+                start = LocalTime.parse(template.getStartTime());
+                end = LocalTime.parse(template.getEndTime());
+            } catch (RuntimeException e) {
+                throw new RuntimeException("WRONG SCHEDULE TIME !!! Expected HH:mm", e);
+            }
+            if (template.getWeekday() == null || template.getWeekday() < 1 || template.getWeekday() > 7){
+                throw new RuntimeException("WRONG SCHEDULE WEEKDAY !!! Expected 1 (Monday) - 7 (Sunday)");
+            }
+            if (!start.plusSeconds(minimalAppointmentTime + 1).isAfter(start)
+                    || start.plusSeconds(minimalAppointmentTime + 1).isAfter(end)){
+                throw new RuntimeException("WRONG SCHEDULE TIME !!! " + template.getStartTime() + " - " + template.getEndTime()
+                        + " is shorter than one appointment");
+            }
         }
+        // slots of overlapping templates would overlap each other, the appointment constraint would reject them at booking
+        final var sorted = new ArrayList<>(templates);
+        sorted.sort(Comparator.comparing(ScheduleTemplate::getWeekday).thenComparing(t -> LocalTime.parse(t.getStartTime())));
+        for (int i = 1; i < sorted.size(); i++) {
+            final var previous = sorted.get(i - 1);
+            final var next = sorted.get(i);
+            if (previous.getWeekday().equals(next.getWeekday())
+                    && LocalTime.parse(next.getStartTime()).isBefore(LocalTime.parse(previous.getEndTime()))){
+                throw new RuntimeException("SCHEDULE TEMPLATES OVERLAP !!! Weekday " + next.getWeekday() + ": "
+                        + previous.getStartTime() + " - " + previous.getEndTime() + " and "
+                        + next.getStartTime() + " - " + next.getEndTime());
+            }
+        }
+        return new AppointmentScheduleResponseDto(repository.setSchedule(user.getId(), templates));
+    }
 
-        Appointment appointment = repository.open( new Appointment(0L,appointmentTimestamp, 0,
-                doctor_id, doctorFirstName, doctorSecondName, doctorDescription,
-                0L, "", "", "", "", "")
-        );
-
-        final var id = appointment.getId();
-        if ( id == 0){
-            throw new RuntimeException("ERROR CREATING APPOINTMENT !!!");
+    private User scheduleOwner(Auth auth) {
+        long doctor_id = auth.getId();
+        if (doctor_id <= 0){
+            throw new RuntimeException("USER NOT AUTHORIZED !!!");
         }
 
-        return new AppointmentOpenResponseDto(id);
+        User user = (User) auth;
+        if (!AppParams.isDoctor(user.getRoles())){
+            throw new RuntimeException("PERMISSION ERROR!!! Only doctors can have a schedule.");
+        }
+        if (user.getFirstName().trim().isEmpty()  || user.getSecondName().trim().isEmpty() || user.getDescription().trim().isEmpty()){
+            throw new RuntimeException("NO DOCTOR INFORMATION !!!");
+        }
+        return user;
     }
 
     public AppointmentBookResponseDto book(AppointmentBookRequestDto requestDto, Auth auth) {
@@ -101,34 +240,62 @@ public class AppointmentService{
             throw new RuntimeException("NO PATIENT INFORMATION !!!");
         }
 
-        Optional<Appointment> appointmentOptional = repository.getById(requestDto.getId());
-        if (appointmentOptional.isEmpty()){
-            throw new RuntimeException("WRONG APPOINTMENT ID !!!");
+        final var id = requestDto.getId();
+        if (bookingFunction) {
+            return bookWithFunction(id, user);
+        }
+
+        final var accessCode = RandomStringUtils.random(8, "0123456789");
+        final var result = id < 0
+                ? slotResult(id, repository.bookSlot(id, user, accessCode, appointmentDayLimit))
+                : repository.book(id, user, accessCode, appointmentDayLimit);
+        if (result.isApplied()) {
+            availableSlotIndex.unavailable(id);
+            return new AppointmentBookResponseDto(result.getAppointment().getId(), accessCode);
         }
-        final var appointment = appointmentOptional.get();
+
+        // cold path: find out why the appointment didn't match
+        final var appointment = conflicting(id, result);
 
         if (appointment.getStatus() != 0){
+            availableSlotIndex.unavailable(id);
             throw new RuntimeException("WRONG APPOINTMENT STATUS !!!");
         }
 
         if (appointment.getPatient_id() != null && appointment.getPatient_id() > 0 ){
+            availableSlotIndex.unavailable(id);
             throw new RuntimeException("APPOINTMENT ALREADY BOOKED!!!");
         }
 
         final var appointmentDate = new Date(appointment.getDateTime().getTime());
-        final var appointmentsForDay = repository.find( new Timestamp(atStartOfDay(appointmentDate).getTime()),
-                                                                        new Timestamp(atEndOfDay(appointmentDate).getTime()),
-                                                                            Set.of(), Set.of(patient_id), Set.of(0, 1),
-                                                            false, false, false);
-        if ( appointmentsForDay.size() >= appointmentDayLimit){
+        if (repository.dayBookings(patient_id, appointment.getDateTime()) >= appointmentDayLimit){
             SimpleDateFormat formatter = new SimpleDateFormat("dd.MM.yyyy");
             throw new RuntimeException("As of "+ formatter.format(appointmentDate) +" appointments day limit exceeded !!!");
         }
 
-        appointment.setAccessCode(RandomStringUtils.random(8, "0123456789"));
-        repository.book(appointment, user);
+        throw concurrentChange();
+    }
 
-        return new AppointmentBookResponseDto(appointment.getId(), appointment.getAccessCode());
+    private AppointmentBookResponseDto bookWithFunction(long id, User user) {
+        final var result = id < 0
+                ? slotResult(id, repository.bookSlotWithFunction(id, user, appointmentDayLimit))
+                : repository.bookWithFunction(id, user, appointmentDayLimit);
+        switch (result.getOutcome()) {
+            case BOOKED:
+                availableSlotIndex.unavailable(id);
+                return new AppointmentBookResponseDto(result.getId(), result.getAccessCode());
+            case WRONG_ID:
+                throw new RuntimeException("WRONG APPOINTMENT ID !!!");
+            case WRONG_STATUS:
+                availableSlotIndex.unavailable(id);
+                throw new RuntimeException("WRONG APPOINTMENT STATUS !!!");
+            case ALREADY_BOOKED:
+                availableSlotIndex.unavailable(id);
+                throw new RuntimeException("APPOINTMENT ALREADY BOOKED!!!");
+            default:
+                SimpleDateFormat formatter = new SimpleDateFormat("dd.MM.yyyy");
+                throw new RuntimeException("As of "+ formatter.format(new Date(result.getDateTime().getTime())) +" appointments day limit exceeded !!!");
+        }
     }
 
     public AppointmentUnBookResponseDto unBook(AppointmentUnBookRequestDto requestDto, Auth auth) {
@@ -147,11 +314,14 @@ public class AppointmentService{
             throw new RuntimeException("PERMISSION ERROR!!! Only patients and chiefs can un-book an appointment.");
         }
 
-        Optional<Appointment> appointmentOptional = repository.getById(requestDto.getId());
-        if (appointmentOptional.isEmpty()){
-            throw new RuntimeException("WRONG APPOINTMENT ID !!!");
+        final var result = repository.unBook(requestDto.getId(), isChief ? 0 : user.getId());
+        if (result.isApplied()) {
+            availableSlotIndex.available(result.getAppointment());
+            return new AppointmentUnBookResponseDto(result.getAppointment().getId());
         }
-        final var appointment = appointmentOptional.get();
+
+        // cold path: find out why the appointment didn't match
+        final var appointment = getAppointment(requestDto.getId());
 
         final var status = appointment.getStatus();
         if (status != 0){
@@ -162,16 +332,11 @@ public class AppointmentService{
             throw new RuntimeException("NOT BOOKED APPOINTMENT CAN'T BE UN-BOOKED!!!");
         }
 
-        if (isChief){
-            repository.unBook(appointment);
-            return new AppointmentUnBookResponseDto(appointment.getId());
-        }
-
-        if (appointment.getPatient_id() != user.getId()){
+        if (!isChief && appointment.getPatient_id() != user.getId()){
             throw new RuntimeException("PATIENT CAN'T UN-BOOK NOT OWN APPOINTMENT !!!");
         }
-        repository.unBook(appointment);
-        return new AppointmentUnBookResponseDto(appointment.getId());
+
+        throw concurrentChange();
     }
 
     public AppointmentCloseResponseDto close(AppointmentCloseRequestDto requestDto, Auth auth) {
@@ -190,11 +355,15 @@ public class AppointmentService{
             throw new RuntimeException("PERMISSION ERROR!!! Only doctors or chiefs can close an appointment.");
         }
 
-        Optional<Appointment> appointmentOptional = repository.getById(requestDto.getId());
-        if (appointmentOptional.isEmpty()){
-            throw new RuntimeException("WRONG APPOINTMENT ID !!!");
+        // doctor role takes precedence: a doctor closes only own appointments by access code
+        final var result = repository.close(requestDto.getId(), isDoctor ? user.getId() : 0, requestDto.getAccessCode(), requestDto.getResult());
+        if (result.isApplied()) {
+            openSlotIndex.remove(result.getAppointment().getDoctor_id(), result.getAppointment().getId());
+            return new AppointmentCloseResponseDto(result.getAppointment().getId());
         }
-        final var appointment = appointmentOptional.get();
+
+        // cold path: find out why the appointment didn't match
+        final var appointment = getAppointment(requestDto.getId());
 
         final var status = appointment.getStatus();
         if (status != 0){
@@ -212,15 +381,9 @@ public class AppointmentService{
             if (!requestDto.getAccessCode().equals(appointment.getAccessCode())){
                 throw new RuntimeException("WRONG ACCESS CODE !!!");
             }
-        }else {
-            appointment.setAccessCode("--------");
         }
 
-        appointment.setStatus(1);
-        appointment.setResult(requestDto.getResult());
-        repository.close(appointment);
-
-        return new AppointmentCloseResponseDto(appointment.getId());
+        throw concurrentChange();
     }
 
     public AppointmentCancelResponseDto cancel(AppointmentCancelRequestDto requestDto, Auth auth) {
@@ -239,42 +402,69 @@ public class AppointmentService{
             throw new RuntimeException("PERMISSION ERROR!!! Only patients, doctors and chiefs can cancel an appointment.");
         }
 
-        Optional<Appointment> appointmentOptional = repository.getById(requestDto.getId());
-        if (appointmentOptional.isEmpty()){
-            throw new RuntimeException("WRONG APPOINTMENT ID !!!");
+        final var id = requestDto.getId();
+        final var result = id < 0
+                ? slotResult(id, repository.cancelSlot(id, isChief ? 0 : user.getId()))
+                : repository.cancel(id, isChief ? 0 : user.getId());
+        if (result.isApplied()) {
+            openSlotIndex.remove(result.getAppointment().getDoctor_id(), result.getAppointment().getId());
+            availableSlotIndex.unavailable(id);
+            return new AppointmentCancelResponseDto(result.getAppointment().getId());
         }
-        final var appointment = appointmentOptional.get();
+
+        // cold path: find out why the appointment didn't match
+        final var appointment = conflicting(id, result);
 
         final var status = appointment.getStatus();
         if (status != 0){
             throw new RuntimeException("WRONG APPOINTMENT STATUS !!! Appointment " + (status > 0 ? "is closed." : "already canceled"));
         }
 
-        if (isChief){
-            if (appointment.getPatient_id() != null && appointment.getPatient_id() > 0 ){
-                throw new RuntimeException("CAN'T CANCEL ALREADY BOOKED APPOINTMENT!!!");
-            }
-            appointment.setStatus(-1);
-            repository.cancel(appointment);
-            return new AppointmentCancelResponseDto(appointment.getId());
+        if (appointment.getPatient_id() != null && appointment.getPatient_id() > 0 ){
+            throw new RuntimeException("CAN'T CANCEL ALREADY BOOKED APPOINTMENT!!!");
         }
 
-        if (isDoctor){
-            if (appointment.getPatient_id() != null && appointment.getPatient_id() > 0 ){
-                throw new RuntimeException("CAN'T CANCEL ALREADY BOOKED APPOINTMENT!!!");
-            }
-            if (appointment.getDoctor_id() != user.getId()){
-                throw new RuntimeException("DOCTOR CAN'T CANCEL NOT OWN APPOINTMENT !!!");
-            }
-            appointment.setStatus(-1);
-            repository.cancel(appointment);
-            return new AppointmentCancelResponseDto(appointment.getId());
+        if (!isChief && appointment.getDoctor_id() != user.getId()){
+            throw new RuntimeException("DOCTOR CAN'T CANCEL NOT OWN APPOINTMENT !!!");
+        }
+
+        throw concurrentChange();
+    }
+
+    // earliest open, not booked slots: served by the available slot index without SQL (a find query when it is off)
+    public AppointmentNextAvailableResponseDto nextAvailable(AppointmentNextAvailableRequestDto requestDto, Auth auth) {
+        long user_id = auth.getId();
+        if (user_id <= 0){
+            throw new RuntimeException("USER NOT AUTHORIZED !!!");
         }
 
-        throw new RuntimeException("UNKNOWN PERMISSION ERROR DURING CANCEL APPOINTMENT OPERATION!!!");
+        final var now = new Date();
+        final var after = requestDto.getAfter();
+        final var since = after == null || after.before(now) ? new Timestamp(now.getTime()) : after;
+        final var doctorIds = requestDto.getDoctorIds() == null ? Set.<Long>of() : requestDto.getDoctorIds();
+        final var limit = KeysetCursor.pageSize(requestDto.getLimit(), 1, pageSizeMax);
+
+        if (availableSlotIndex.isEnabled()) {
+            return new AppointmentNextAvailableResponseDto(availableSlotIndex.next(since, doctorIds, limit));
+        }
+        final var end = openPeriodEnd(now);
+        if (!since.before(end)) {
+            return new AppointmentNextAvailableResponseDto(List.of());
+        }
+        return new AppointmentNextAvailableResponseDto(repository.find(since, end, doctorIds, Set.of(), Set.of(0),
+                true, true, true, null, 0, limit));
     }
 
     public AppointmentFindResponseDto find(AppointmentFindRequestDto requestDto, Auth auth) {
+        return find(requestDto, auth, null);
+    }
+
+    // streaming mode: every matching appointment is passed to consumer as it is read, without paging
+    public void findAll(AppointmentFindRequestDto requestDto, Auth auth, Consumer<Appointment> consumer) {
+        find(requestDto, auth, Objects.requireNonNull(consumer));
+    }
+
+    private AppointmentFindResponseDto find(AppointmentFindRequestDto requestDto, Auth auth, Consumer<Appointment> consumer) {
         long user_id = auth.getId();
         if (user_id <= 0){
             throw new RuntimeException("USER NOT AUTHORIZED !!!");
@@ -327,13 +517,110 @@ public class AppointmentService{
             }
         }
 
+        if (consumer != null) {
+            repository.find(startTimestamp, endTimestamp, doctorIds, patientIds, statuses,
+                    maskedAccessCode, maskedPatientInfo, availableOnly, consumer);
+            return null;
+        }
+
+        // keyset page in (dateTime, id) order, one row more than the page is read to know if there is a next one
+        final var limit = KeysetCursor.pageSize(requestDto.getLimit(), pageSize, pageSizeMax);
+        final var cursor = requestDto.getCursor() == null ? null : KeysetCursor.decode(requestDto.getCursor(), 2);
+
         final var appointments = repository.find(startTimestamp, endTimestamp, doctorIds, patientIds, statuses,
-                maskedAccessCode, maskedPatientInfo, availableOnly);
+                maskedAccessCode, maskedPatientInfo, availableOnly,
+                cursor == null ? null : KeysetCursor.timestamp(cursor[0]), cursor == null ? 0 : cursor[1], limit + 1);
+        if (appointments.size() <= limit) {
+            return new AppointmentFindResponseDto(appointments, null);
+        }
+        final var page = appointments.subList(0, limit);
+        final var last = page.get(limit - 1);
+        return new AppointmentFindResponseDto(page, KeysetCursor.encode(KeysetCursor.micros(last.getDateTime()), last.getId()));
+    }
 
-        return new AppointmentFindResponseDto(appointments);
+    // reads use the names copied into appointment, user_info edits reach future appointments here
+    @Scheduled(fixedDelayString = "#{${user_info_refresh:30} * 1000}")
+    public void refreshUserInfo() {
+        if (userInfoRefreshChunk <= 0) {
+            return;
+        }
+        int refreshed;
+        do {
+            refreshed = repository.refreshUserInfo(userInfoRefreshChunk);
+        } while (refreshed >= userInfoRefreshChunk);
     }
 
+    // appointments can be opened up to end_appointment_period days ahead, their months must exist by then;
+    // appointment_retention_months > 0 (opt-in, 0 by default) - older months are detached from appointment (kept as
+    // archive tables, their appointments are no longer found by id, closed or canceled)
+    @Scheduled(fixedDelayString = "#{${appointment_partition_maintenance:3600} * 1000}")
+    public void maintainPartitions() {
+        final var today = LocalDate.now();
+        repository.createPartitions(Timestamp.valueOf(today.atStartOfDay()),
+                Timestamp.valueOf(today.plusDays(endAppointmentPeriod + 1).atStartOfDay()));
+        if (appointmentRetentionMonths > 0) {
+            repository.detachPartitions(Timestamp.valueOf(today.withDayOfMonth(1).minusMonths(appointmentRetentionMonths).atStartOfDay()));
+        }
+    }
 
+    // the open slot index follows open/close/cancel of this node, the re-read brings in changes made by other nodes;
+    // slots reaching into the booking window by up to one appointment length are kept for the overlap check
+    @Scheduled(fixedDelayString = "#{${open_slot_index_refresh:300} * 1000}")
+    public void reloadOpenSlots() {
+        if (!openSlotIndex.isEnabled()) {
+            return;
+        }
+        final var date = new Date();
+        final var versions = openSlotIndex.versions();
+        openSlotIndex.reload(versions, repository.findOpen(
+                new Timestamp(openPeriodStart(date).getTime() - minimalAppointmentTime * 1000),
+                new Timestamp(openPeriodEnd(date).getTime() + minimalAppointmentTime * 1000)));
+    }
+
+    // the available slot index follows book/unbook/open/cancel of this node, the re-read brings in changes made by
+    // other nodes and schedule template edits
+    @Scheduled(fixedDelayString = "#{${available_slot_index_refresh:60} * 1000}")
+    public void reloadAvailableSlots() {
+        if (!availableSlotIndex.isEnabled()) {
+            return;
+        }
+        final var date = new Date();
+        availableSlotIndex.reload(() -> repository.find(new Timestamp(date.getTime()), openPeriodEnd(date),
+                Set.of(), Set.of(), Set.of(0), false, false, true));
+    }
+
+    // negative ids are free slots of schedule templates, they become real appointments only when booked or canceled;
+    // empty - no such slot (any more)
+    private <T> T slotResult(long virtualId, Optional<T> result) {
+        if (result.isEmpty()) {
+            availableSlotIndex.unavailable(virtualId);
+            throw new RuntimeException("WRONG APPOINTMENT ID !!!");
+        }
+        return result.get();
+    }
+
+    // the appointment as it was when the transition didn't apply: read again, unless a template slot transition
+    // brought it (a slot materialized by it is rolled back, so it can't be read again)
+    private Appointment conflicting(long id, TransitionResult result) {
+        return result.getAppointment() != null ? result.getAppointment() : getAppointment(id);
+    }
+
+    private Appointment getAppointment(long id) {
+        return repository.getById(id).orElseThrow(() -> new RuntimeException("WRONG APPOINTMENT ID !!!"));
+    }
+
+    private Timestamp openPeriodStart(Date date) {
+        return new Timestamp(atStartOfDay(date).getTime() + (startAppointmentPeriod * (86400 * 1000)));
+    }
+
+    private Timestamp openPeriodEnd(Date date) {
+        return new Timestamp(atEndOfDay(date).getTime() + (endAppointmentPeriod * (86400 * 1000)));
+    }
+
+    // the row matched every check on re-read, so another request changed it in between
+    private ConflictException concurrentChange() {
+        return new ConflictException("APPOINTMENT WAS CHANGED BY ANOTHER REQUEST, TRY AGAIN !!!");
+    }
 
     private Date atStartOfDay(Date date) {
         Calendar calendar = Calendar.getInstance();
@@ -0,0 +1,165 @@
+package tech.itpark.service;
+
+import tech.itpark.model.Appointment;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+// open, not booked appointments (and free schedule template slots) of the booking window in (dateTime, id) order,
+// all doctors together and per doctor: the earliest ones are the head of a skip list, readers don't lock.
+// Writers (book/unbook/open/cancel of this node) are serialized; changes of other nodes come with reload()
+public class AvailableSlotIndex {
+  private final boolean enabled;
+  private volatile State state = new State();
+  private List<Appointment> journal; // changes made while reload() reads, replayed onto the loaded state
+
+  public AvailableSlotIndex(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  // up to limit slots starting at or after since; empty doctorIds - any doctor
+  public List<Appointment> next(Timestamp since, Collection<Long> doctorIds, int limit) {
+    final var current = state;
+    final var from = new Key(since.getTime(), Long.MIN_VALUE);
+    final var result = new ArrayList<Appointment>(limit);
+    if (doctorIds.isEmpty()) {
+      collect(current.all, from, limit, result);
+      return result;
+    }
+    // first limit of every doctor, the earliest limit of them all
+    for (Long doctorId : doctorIds) {
+      final var slots = current.byDoctor.get(doctorId);
+      if (slots != null) {
+        collect(slots, from, limit, result);
+      }
+    }
+    result.sort((a, b) -> Key.of(a).compareTo(Key.of(b)));
+    return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+  }
+
+  // appointment is (again) open and not booked
+  public void available(Appointment appointment) {
+    change(appointment);
+  }
+
+  // booked, canceled or gone
+  public void unavailable(long id) {
+    change(removal(id));
+  }
+
+  // replaces the index with the slots read by reader, changes made meanwhile are applied again on top of them
+  public void reload(Supplier<List<Appointment>> reader) {
+    if (!enabled) {
+      return;
+    }
+    synchronized (this) {
+      if (journal != null) {
+        return;
+      }
+      journal = new ArrayList<>();
+    }
+    final var loaded = new State();
+    try {
+      for (Appointment appointment : reader.get()) {
+        loaded.apply(appointment);
+      }
+      synchronized (this) {
+        for (Appointment appointment : journal) {
+          loaded.apply(appointment);
+        }
+        state = loaded;
+      }
+    } finally {
+      synchronized (this) {
+        journal = null;
+      }
+    }
+  }
+
+  public Map<String, Number> getMetrics() {
+    return Map.of(
+        "enabled", enabled ? 1 : 0,
+        "slots", state.byId.size()
+    );
+  }
+
+  private synchronized void change(Appointment appointment) {
+    if (!enabled) {
+      return;
+    }
+    state.apply(appointment);
+    if (journal != null) {
+      journal.add(appointment);
+    }
+  }
+
+  private static Appointment removal(long id) {
+    return new Appointment(id, null, -1, null, null, null, null, null, null, null, null, null, null);
+  }
+
+  private static void collect(NavigableMap<Key, Appointment> slots, Key from, int limit, List<Appointment> result) {
+    var count = 0;
+    for (Appointment appointment : slots.tailMap(from, true).values()) {
+      if (count++ >= limit) {
+        return;
+      }
+      result.add(appointment);
+    }
+  }
+
+  private static class State {
+    private final ConcurrentSkipListMap<Key, Appointment> all = new ConcurrentSkipListMap<>();
+    private final Map<Long, ConcurrentSkipListMap<Key, Appointment>> byDoctor = new ConcurrentHashMap<>();
+    private final Map<Long, Appointment> byId = new ConcurrentHashMap<>();
+
+    // status 0 - put, anything else - remove by id
+    private void apply(Appointment appointment) {
+      final var previous = byId.remove(appointment.getId());
+      if (previous != null) {
+        all.remove(Key.of(previous));
+        final var doctorSlots = byDoctor.get(previous.getDoctor_id());
+        if (doctorSlots != null) {
+          doctorSlots.remove(Key.of(previous));
+        }
+      }
+      if (appointment.getStatus() != 0) {
+        return;
+      }
+      byId.put(appointment.getId(), appointment);
+      all.put(Key.of(appointment), appointment);
+      byDoctor.computeIfAbsent(appointment.getDoctor_id(), key -> new ConcurrentSkipListMap<>())
+          .put(Key.of(appointment), appointment);
+    }
+  }
+
+  private static class Key implements Comparable<Key> {
+    private final long at;
+    private final long id;
+
+    private Key(long at, long id) {
+      this.at = at;
+      this.id = id;
+    }
+
+    private static Key of(Appointment appointment) {
+      return new Key(appointment.getDateTime().getTime(), appointment.getId());
+    }
+
+    @Override
+    public int compareTo(Key other) {
+      final var result = Long.compare(at, other.at);
+      return result != 0 ? result : Long.compare(id, other.id);
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package tech.itpark.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import tech.itpark.configuration.AppParams;
+import tech.itpark.dto.MetricsResponseDto;
+import tech.itpark.exception.AuthErrorException;
+import tech.itpark.exception.PermissionDeniedException;
+import tech.itpark.jdbc.StatementStats;
+import tech.itpark.jdbc.TrackingDataSource;
+import tech.itpark.model.User;
+import tech.itpark.security.Auth;
+import tech.itpark.security.AuthCache;
+import tech.itpark.security.SessionActivity;
+import tech.itpark.security.TokenFilter;
+import tech.itpark.security.TokenRevocations;
+
+import java.util.Map;
+
+@Service
+@RequiredArgsConstructor
+public class MetricsService {
+  private final TrackingDataSource dataSource;
+  private final StatementStats statementStats;
+  private final AuthCache authCache;
+  private final TokenFilter tokenFilter;
+  private final SessionActivity sessionActivity;
+  private final TokenRevocations tokenRevocations;
+  private final OpenSlotIndex openSlotIndex;
+  private final AvailableSlotIndex availableSlotIndex;
+  private final UserDirectory userDirectory;
+
+  private long connectionLeakThreshold = 30; // seconds
+
+  public void initParams(long connectionLeakThreshold) {
+    this.connectionLeakThreshold = connectionLeakThreshold;
+  }
+
+  public MetricsResponseDto getMetrics(Auth auth) {
+    if (auth.getId() <= 0) {
+      throw new AuthErrorException("USER NOT AUTHORIZED !!!");
+    }
+    if (!AppParams.isAdmin(((User) auth).getRoles())) {
+      throw new PermissionDeniedException("ADMINS ONLY OPERATION !!!");
+    }
+
+    return new MetricsResponseDto(
+        dataSource.getMetrics(),
+        dataSource.getOutstandingSites(),
+        statementStats.getMetrics(),
+        statementStats.getSlowest(10),
+        Map.of(
+            "size", authCache.size(),
+            "hits", authCache.getHits(),
+            "misses", authCache.getMisses(),
+            "evictions", authCache.getEvictions()
+        ),
+        Map.of(
+            "rejected", tokenFilter.getRejected(),
+            "passed", tokenFilter.getPassed(),
+            "recent", tokenFilter.getRecent()
+        ),
+        Map.of(
+            "pendingActivity", sessionActivity.size(),
+            "revocations", tokenRevocations.size()
+        ),
+        openSlotIndex.getMetrics(),
+        availableSlotIndex.getMetrics(),
+        userDirectory.getMetrics()
+    );
+  }
+
+  // stack trace of every reported leak is the borrow site of the connection
+  @Scheduled(fixedDelayString = "#{${connection_leak_check:10} * 1000}")
+  public void checkConnectionLeaks() {
+    dataSource.detectLeaks(connectionLeakThreshold * 1000).forEach(Throwable::printStackTrace);
+  }
+}
@@ -0,0 +1,172 @@
+package tech.itpark.service;
+
+import lombok.Value;
+import tech.itpark.model.Appointment;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+// open appointments of the booking window per doctor: start times (epoch millis) in a sorted long array with ids
+// alongside, so the open() overlap check is a binary search; arrays are replaced on change, readers don't lock.
+// A hit rejects open() without SQL, a miss just costs the INSERT: the exclusion constraint in the database stays the
+// arbiter for slots opened elsewhere. A slot closed or canceled by another node keeps rejecting until the next reload
+public class OpenSlotIndex {
+  private final boolean enabled;
+  private final Map<Long, Slots> doctors = new ConcurrentHashMap<>();
+
+  public OpenSlotIndex(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  // an open slot of the doctor starting within [start - length, start + length]
+  public Optional<Slot> overlapping(long doctorId, long start, long length) {
+    if (!enabled) {
+      return Optional.empty();
+    }
+    final var slots = doctors.get(doctorId);
+    if (slots == null) {
+      return Optional.empty();
+    }
+    final var index = lowerBound(slots.starts, start - length);
+    if (index < slots.starts.length && slots.starts[index] <= start + length) {
+      return Optional.of(new Slot(slots.ids[index], slots.starts[index]));
+    }
+    return Optional.empty();
+  }
+
+  public void add(long doctorId, long id, long start) {
+    if (!enabled) {
+      return;
+    }
+    doctors.compute(doctorId, (key, slots) -> (slots == null ? Slots.EMPTY : slots).with(id, start));
+  }
+
+  public void remove(long doctorId, long id) {
+    if (!enabled) {
+      return;
+    }
+    doctors.computeIfPresent(doctorId, (key, slots) -> slots.without(id));
+  }
+
+  // replaces the index with open appointments read from the database; doctors changed by add/remove since
+  // versions() was taken keep their entries (the read may not include those changes)
+  public void reload(Map<Long, Long> versions, List<Appointment> appointments) {
+    if (!enabled) {
+      return;
+    }
+    final var loaded = new HashMap<Long, List<Appointment>>();
+    for (Appointment appointment : appointments) {
+      loaded.computeIfAbsent(appointment.getDoctor_id(), key -> new ArrayList<>()).add(appointment);
+    }
+    for (final var doctorId : doctors.keySet()) {
+      loaded.putIfAbsent(doctorId, List.of());
+    }
+    loaded.forEach((doctorId, open) -> doctors.compute(doctorId, (key, current) -> {
+      final var currentVersion = current == null ? 0 : current.version;
+      if (currentVersion != versions.getOrDefault(doctorId, 0L)) {
+        return current;
+      }
+      return open.isEmpty() ? null : Slots.of(open, currentVersion);
+    }));
+  }
+
+  public Map<Long, Long> versions() {
+    final var result = new HashMap<Long, Long>();
+    doctors.forEach((doctorId, slots) -> result.put(doctorId, slots.version));
+    return result;
+  }
+
+  public Map<String, Number> getMetrics() {
+    return Map.of(
+        "enabled", enabled ? 1 : 0,
+        "doctors", doctors.size(),
+        "slots", doctors.values().stream().mapToInt(slots -> slots.starts.length).sum()
+    );
+  }
+
+  // first index with starts[index] >= value
+  private static int lowerBound(long[] starts, long value) {
+    var low = 0;
+    var high = starts.length;
+    while (low < high) {
+      final var middle = (low + high) >>> 1;
+      if (starts[middle] < value) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  @Value
+  public static class Slot {
+    long id;
+    long start;
+  }
+
+  private static class Slots {
+    private static final Slots EMPTY = new Slots(new long[0], new long[0], 0);
+
+    private final long[] starts;
+    private final long[] ids;
+    private final long version; // + 1 on every add/remove
+
+    private Slots(long[] starts, long[] ids, long version) {
+      this.starts = starts;
+      this.ids = ids;
+      this.version = version;
+    }
+
+    private Slots with(long id, long start) {
+      final var cleared = without(id);
+      final var index = lowerBound(cleared.starts, start);
+      final var starts = new long[cleared.starts.length + 1];
+      final var ids = new long[starts.length];
+      System.arraycopy(cleared.starts, 0, starts, 0, index);
+      System.arraycopy(cleared.ids, 0, ids, 0, index);
+      starts[index] = start;
+      ids[index] = id;
+      System.arraycopy(cleared.starts, index, starts, index + 1, cleared.starts.length - index);
+      System.arraycopy(cleared.ids, index, ids, index + 1, cleared.ids.length - index);
+      return new Slots(starts, ids, version + 1);
+    }
+
+    private Slots without(long id) {
+      for (int i = 0; i < ids.length; i++) {
+        if (ids[i] != id) {
+          continue;
+        }
+        final var starts = new long[this.starts.length - 1];
+        final var ids = new long[starts.length];
+        System.arraycopy(this.starts, 0, starts, 0, i);
+        System.arraycopy(this.ids, 0, ids, 0, i);
+        System.arraycopy(this.starts, i + 1, starts, i, starts.length - i);
+        System.arraycopy(this.ids, i + 1, ids, i, ids.length - i);
+        return new Slots(starts, ids, version + 1);
+      }
+      return new Slots(starts, ids, version + 1);
+    }
+
+    private static Slots of(List<Appointment> appointments, long version) {
+      final var sorted = new ArrayList<>(appointments);
+      sorted.sort(Comparator.comparing(Appointment::getDateTime));
+      final var starts = new long[sorted.size()];
+      final var ids = new long[starts.length];
+      for (int i = 0; i < starts.length; i++) {
+        starts[i] = sorted.get(i).getDateTime().getTime();
+        ids[i] = sorted.get(i).getId();
+      }
+      return new Slots(starts, ids, version);
+    }
+  }
+}
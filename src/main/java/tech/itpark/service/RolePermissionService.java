@@ -1,6 +1,7 @@
 package tech.itpark.service;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import tech.itpark.configuration.AppParams;
 import tech.itpark.dto.*;
@@ -9,7 +10,9 @@ import tech.itpark.exception.BadRequestException;
 import tech.itpark.exception.PermissionDeniedException;
 import tech.itpark.model.User;
 import tech.itpark.repository.RolePermissionRepository;
+import tech.itpark.security.AccessControl;
 import tech.itpark.security.Auth;
+import tech.itpark.security.RoutePermissions;
 
 import java.util.AbstractMap;
 import java.util.Map;
@@ -20,6 +23,8 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class RolePermissionService {
     private final RolePermissionRepository repository;
+    private final AccessControl accessControl;
+    private final UserDirectory userDirectory;
 
     private void checkAuthAdmin(Auth auth){
         long user_id = auth.getId();
@@ -66,6 +71,7 @@ public class RolePermissionService {
         }
 
         repository.appendPermissions(operation, rolesToAppend);
+        refreshAccessControl();
 
         return new PermissionsAppendRemoveResponseDto(operation, repository.getOperationRoles(operation));
     }
@@ -93,6 +99,7 @@ public class RolePermissionService {
         }
 
         repository.removePermissions(operation, rolesToRemove);
+        refreshAccessControl();
 
         return new PermissionsAppendRemoveResponseDto(operation, repository.getOperationRoles(operation));
     }
@@ -156,7 +163,10 @@ public class RolePermissionService {
             new AbstractMap.SimpleEntry<String, Boolean>(AppParams.roleAttributePATIENT(), (Boolean) attributes.get(AppParams.roleAttributePATIENT()))
                                                           );
 
-        return new RolesAppendResponseDto(repository.appendRole(preparedAttributes));
+        final var result = repository.appendRole(preparedAttributes);
+        refreshAccessControl();
+
+        return new RolesAppendResponseDto(result);
     }
 
     public RolesRemoveResponseDto removeRole(RolesRemoveRequestDto requestDto, Auth auth) {
@@ -168,6 +178,7 @@ public class RolePermissionService {
             throw new BadRequestException("Role '" + role + "' not exist !!!");
         }
         repository.removeRole(id);
+        refreshAccessControl();
 
         return new RolesRemoveResponseDto(id);
     }
@@ -181,4 +192,17 @@ public class RolePermissionService {
         return repository.initRolePermissions();
     }
 
+    // acl_version is bumped by triggers on roles/permissions, so writes made through any node are picked up here
+    // version is read before the tables: a write racing with the reload only causes one more reload
+    @Scheduled(fixedDelayString = "#{${acl_refresh:5} * 1000}")
+    public synchronized void refreshAccessControl() {
+        final var version = repository.aclVersion();
+        if (version == accessControl.version()) {
+            return;
+        }
+        AppParams.setRoleAttributes(initRoleAttributes());
+        accessControl.update(version, RoutePermissions.compile(initRolePermissions()));
+        userDirectory.invalidate(); // role sets of the listings may have changed
+    }
+
 }
@@ -0,0 +1,154 @@
+package tech.itpark.service;
+
+import tech.itpark.model.User;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// users of a role set (doctors, chiefs) in id order with first/second name and description lowercased once, so
+// /api/users/find/doctors|chiefs filter and page in memory; every user info, role or removal change made through this
+// node drops all listings, changes made through other nodes are picked up after ttl
+public class UserDirectory {
+  private final long ttl; // millis, 0 - no directory
+  private final Map<Set<String>, Listing> listings = new ConcurrentHashMap<>();
+  private final AtomicLong generation = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  public UserDirectory(long ttlSeconds) {
+    this.ttl = ttlSeconds * 1000;
+  }
+
+  public boolean isEnabled() {
+    return ttl > 0;
+  }
+
+  // users with id > afterId matching info (contains any of as plain text, case-insensitive, as the database search
+  // does; empty - any), up to limit (0 - all);
+  // loader reads all users of roles with an empty info filter in id order
+  public List<User> find(Set<String> roles, Set<String> info, long afterId, int limit, Supplier<List<User>> loader) {
+    final var listing = listing(roles, loader);
+    final var patterns = patterns(info);
+    final var result = new ArrayList<User>();
+    for (int i = listing.after(afterId); i < listing.users.length; i++) {
+      if (patterns.length > 0 && !listing.matches(i, patterns)) {
+        continue;
+      }
+      result.add(listing.users[i]);
+      if (result.size() == limit) {
+        break;
+      }
+    }
+    return result;
+  }
+
+  // all users matching info passed to consumer, only if the listing is already there: false - not cached, nothing
+  // is loaded (a stream reads the database by cursor instead of holding the whole listing)
+  public boolean forEach(Set<String> roles, Set<String> info, Consumer<User> consumer) {
+    final var listing = listings.get(roles);
+    if (listing == null || listing.expiresAt <= System.currentTimeMillis()) {
+      misses.incrementAndGet();
+      return false;
+    }
+    hits.incrementAndGet();
+    final var patterns = patterns(info);
+    for (int i = 0; i < listing.users.length; i++) {
+      if (patterns.length == 0 || listing.matches(i, patterns)) {
+        consumer.accept(listing.users[i]);
+      }
+    }
+    return true;
+  }
+
+  public void invalidate() {
+    generation.incrementAndGet();
+    listings.clear();
+  }
+
+  public Map<String, Number> getMetrics() {
+    return Map.of(
+        "listings", listings.size(),
+        "hits", hits.get(),
+        "misses", misses.get()
+    );
+  }
+
+  private static String[] patterns(Set<String> info) {
+    return info.stream().map(o -> o.toLowerCase(Locale.ROOT)).toArray(String[]::new);
+  }
+
+  private Listing listing(Set<String> roles, Supplier<List<User>> loader) {
+    final var now = System.currentTimeMillis();
+    final var cached = listings.get(roles);
+    if (cached != null && cached.expiresAt > now) {
+      hits.incrementAndGet();
+      return cached;
+    }
+    misses.incrementAndGet();
+    // read outside of the map: a change made while loading invalidates the result for the others, not for this call
+    final var loadedGeneration = generation.get();
+    final var listing = new Listing(loader.get(), now + ttl);
+    if (loadedGeneration == generation.get()) {
+      listings.put(Set.copyOf(roles), listing);
+    }
+    return listing;
+  }
+
+  private static class Listing {
+    private final User[] users;
+    private final long[] ids;
+    private final String[] text; // firstName, secondName, description of users[i] at 3 * i ...
+    private final long expiresAt;
+
+    private Listing(List<User> users, long expiresAt) {
+      this.users = users.toArray(User[]::new);
+      this.ids = new long[this.users.length];
+      this.text = new String[this.users.length * 3];
+      for (int i = 0; i < this.users.length; i++) {
+        final var user = this.users[i];
+        ids[i] = user.getId();
+        text[3 * i] = lower(user.getFirstName());
+        text[3 * i + 1] = lower(user.getSecondName());
+        text[3 * i + 2] = lower(user.getDescription());
+      }
+      this.expiresAt = expiresAt;
+    }
+
+    // index of the first user with id > afterId
+    private int after(long afterId) {
+      var low = 0;
+      var high = ids.length;
+      while (low < high) {
+        final var middle = (low + high) >>> 1;
+        if (ids[middle] <= afterId) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      return low;
+    }
+
+    private boolean matches(int index, String[] patterns) {
+      for (int field = 3 * index; field < 3 * index + 3; field++) {
+        for (String pattern : patterns) {
+          if (text[field].contains(pattern)) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+
+    private static String lower(String value) {
+      return value == null ? "" : value.toLowerCase(Locale.ROOT);
+    }
+  }
+}
@@ -1,21 +1,35 @@
 package tech.itpark.service;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import tech.itpark.configuration.AppParams;
 import tech.itpark.crypto.PasswordHasher;
+import tech.itpark.crypto.SignedTokenCodec;
+import tech.itpark.crypto.SignedTokenGenerator;
 import tech.itpark.crypto.TokenGenerator;
 import tech.itpark.dto.*;
 import tech.itpark.exception.AuthErrorException;
+import tech.itpark.exception.InitializationException;
 import tech.itpark.exception.PermissionDeniedException;
+import tech.itpark.jdbc.KeysetCursor;
+import tech.itpark.model.SignedToken;
 import tech.itpark.model.TokenAuth;
 import tech.itpark.model.User;
 import tech.itpark.repository.UserRepository;
+import tech.itpark.security.AuthCache;
 import tech.itpark.security.AuthProvider;
 import tech.itpark.security.Auth;
+import tech.itpark.security.SessionActivity;
+import tech.itpark.security.TokenRevocations;
 
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Service
@@ -24,16 +38,139 @@ public class UserService implements AuthProvider {
   private final UserRepository repository;
   private final PasswordHasher passwordHasher;
   private final TokenGenerator tokenGenerator;
+  private final SignedTokenGenerator signedTokenGenerator;
+  private final AuthCache authCache;
+  private final SignedTokenCodec signedTokenCodec;
+  private final TokenRevocations tokenRevocations;
+  private final SessionActivity sessionActivity;
+  private final UserDirectory userDirectory;
+
+  private boolean signedTokens; // auth_mode=signed: stateless tokens, no tokens table
+  private long signedTokenTtl;
+  private long tokenTtl;
+  private int tokenSweepChunk;
+  private int pageSize;
+  private int pageSizeMax;
+
+  public void initParams(boolean signedTokens, long signedTokenTtl, boolean tokenDigestStorage, long tokenTtl, int tokenSweepChunk,
+                         int pageSize, int pageSizeMax) {
+    if (tokenSweepChunk <= 0) {
+      throw new InitializationException("token_sweep_chunk must be greater than 0 !!!");
+    }
+    this.signedTokens = signedTokens;
+    this.signedTokenTtl = signedTokenTtl;
+    this.pageSize = pageSize;
+    this.pageSizeMax = pageSizeMax;
+    this.tokenTtl = tokenTtl;
+    this.tokenSweepChunk = tokenSweepChunk;
+    repository.initTokenStorage(tokenDigestStorage && !signedTokens);
+  }
 
   @Override
   public Auth provide(String token) {
+    if (token == null) {
+      return Auth.anonymous();
+    }
+    Optional<SignedToken> signedToken = Optional.empty();
+    if (signedTokens) {
+      // forged, expired and revoked tokens are rejected without database round trip
+      signedToken = verifySignedToken(token);
+      if (signedToken.isEmpty()) {
+        return Auth.anonymous();
+      }
+    } else if (!repository.mightHaveToken(token)) {
+      return Auth.anonymous(); // unknown or forged token, constant time
+    }
+
+    final var cached = authCache.get(token);
+    if (cached.isPresent()) {
+      touchSession(cached.get().getId());
+      return cached.get();
+    }
     // BL -> Optional.empty -> Anonymous
-    return repository.getByToken(token)
+    final var user = signedToken.isPresent() ? getBySignedToken(signedToken.get()) : repository.getByToken(token);
+    user.ifPresent(u -> {
+      authCache.put(token, u);
+      touchSession(u.getId());
+    });
+    return user
             .map(o -> (Auth) o)
             .orElse(Auth.anonymous())
             ;
   }
 
+  @Scheduled(fixedDelayString = "#{${signed_token_revocations_refresh:10} * 1000}")
+  public void refreshTokenRevocations() {
+    if (!signedTokens) {
+      return;
+    }
+    final var since = System.currentTimeMillis() - signedTokenTtl * 1000;
+    tokenRevocations.merge(repository.getRevocations(new Timestamp(since)));
+    tokenRevocations.prune(since);
+  }
+
+  @Scheduled(initialDelay = 0, fixedDelayString = "#{${token_filter_rebuild:300} * 1000}")
+  public void rebuildTokenFilter() {
+    if (signedTokens) {
+      return;
+    }
+    repository.rebuildTokenFilter();
+  }
+
+  @Scheduled(fixedDelayString = "#{${token_touch_flush:30} * 1000}")
+  public void flushSessionActivity() {
+    repository.touchTokens(sessionActivity.drain(), tokenTtl);
+  }
+
+  @Scheduled(fixedDelayString = "#{${token_sweep:300} * 1000}")
+  public void sweepExpiredTokens() {
+    if (signedTokens) {
+      return;
+    }
+    // bounded chunks: short statements, no long lock on the tokens table
+    int deleted;
+    do {
+      deleted = repository.sweepExpiredTokens(tokenSweepChunk);
+    } while (deleted > 0 && deleted >= tokenSweepChunk);
+  }
+
+  // signed tokens have fixed expiry, only tokens table sessions slide
+  private void touchSession(long userId) {
+    if (!signedTokens) {
+      sessionActivity.touch(userId);
+    }
+  }
+
+  private Optional<SignedToken> verifySignedToken(String token) {
+    final var now = System.currentTimeMillis();
+    return signedTokenCodec.decode(token)
+            .filter(t -> t.getExpiresAt() > now)
+            .filter(t -> !tokenRevocations.isRevoked(t.getUserId(), t.getIssuedAt()));
+  }
+
+  // the user is built from the token alone, no database round trip (removal and role changes revoke the token)
+  private Optional<User> getBySignedToken(SignedToken signedToken) {
+    return Optional.of(new User(signedToken.getUserId(), signedToken.getLogin(), "********", "********", false,
+        signedToken.getRoles(), signedToken.getFirstName(), signedToken.getSecondName(), signedToken.getDescription()));
+  }
+
+  private Optional<User> getByToken(String token) {
+    if (signedTokens) {
+      return verifySignedToken(token).flatMap(this::getBySignedToken);
+    }
+    return repository.getByToken(token);
+  }
+
+  // all signed tokens of the user issued up to now become invalid (logout, removal, role changes)
+  private void revokeSignedTokens(long userId) {
+    if (!signedTokens) {
+      return;
+    }
+    final var now = System.currentTimeMillis();
+    tokenRevocations.revoke(userId, now);
+    repository.saveRevocation(userId, new Timestamp(now));
+  }
+
 
 
   public UserRegisterResponseDto register(UserRegisterRequestDto request) {
@@ -83,19 +220,23 @@ public class UserService implements AuthProvider {
     long saved_id = registerUser.getId();
     if (saved_id != 0){
       repository.appendUserRoles(registerUser, registerUser.getRoles());
+      userDirectory.invalidate();
     }
 
     return new UserRegisterResponseDto(registerUser.getId());
   }
 
   public UnregisterResponseDto delete(UnregisterRequestDto requestDto, String token) {
-    final var user = repository.getByToken(token)
+    final var user = getByToken(token)
             .orElseThrow(() -> new RuntimeException("user not found"));
 
     if (!passwordHasher.matches(user.getPassword(), requestDto.getPassword())) {
       throw new RuntimeException("passwords not match");
     }
     repository.remove(user, true);
+    revokeSignedTokens(user.getId());
+    authCache.invalidateUser(user.getId());
+    userDirectory.invalidate();
     return new UnregisterResponseDto(user.getId());
   }
 
@@ -112,6 +253,8 @@ public class UserService implements AuthProvider {
     }
 
     repository.remove(user, false);
+    authCache.invalidateUser(user.getId());
+    userDirectory.invalidate();
     return new RestoreResponseDto(user.getId());
   }
 
@@ -129,18 +272,32 @@ public class UserService implements AuthProvider {
       throw new AuthErrorException("Users deleted!");
     }
 
+    if (signedTokens) {
+      revokeSignedTokens(user.getId()); // one session per user, like the tokens table
+      final var token = signedTokenGenerator.generate(user);
+      authCache.invalidateUser(user.getId());
+      return new LoginResponseDto(token);
+    }
+
     final var token = tokenGenerator.generate();
-    repository.saveToken(new TokenAuth(user.getId(), token));
+    repository.saveToken(new TokenAuth(user.getId(), token), tokenTtl);
+    authCache.invalidateUser(user.getId()); // previous token of the user was replaced
     return new LoginResponseDto(token);
   }
 
   public LogoutResponseDto logout(Auth auth, String token) {
-    User user = repository.getByToken(token).orElseThrow(() -> new RuntimeException("Wrong token!"));
+    User user = getByToken(token).orElseThrow(() -> new RuntimeException("Wrong token!"));
     long id = auth.getId();
     if (id != user.getId()){
       throw new AuthErrorException("Wrong authorization !"); // it's impossible
     }
-    repository.deleteToken(new TokenAuth(id, token));
+    if (signedTokens) {
+      revokeSignedTokens(id);
+    } else {
+      repository.deleteToken(new TokenAuth(id, token));
+      sessionActivity.forget(id);
+    }
+    authCache.invalidateToken(token);
     return new LogoutResponseDto(id);
   }
 
@@ -153,6 +310,7 @@ public class UserService implements AuthProvider {
     }
     user.setPassword(passwordHasher.hash(requestDto.getPassword()));
     repository.updatePassword(user);
+    authCache.invalidateUser(user.getId());
     return new UpdatePasswordResponseDto(user.getId());
   }
 
@@ -163,6 +321,7 @@ public class UserService implements AuthProvider {
     }
     user.setSecret(passwordHasher.hash(requestDto.getSecret()));
     repository.updateSecret(user);
+    authCache.invalidateUser(user.getId());
     return new UpdateSecretResponseDto(user.getId());
   }
 
@@ -179,7 +338,7 @@ public class UserService implements AuthProvider {
       throw new PermissionDeniedException("ADMIN OPERATION !!!");
     }
 
-    return new UsersByRolesResponseDto(repository.getUsersByRoles(requestDto.getRoles(), requestDto.getActive()));
+    return new UsersByRolesResponseDto(repository.getUsersByRoles(requestDto.getRoles(), requestDto.getActive()), null);
   }
 
 ////////////////////////////////////////////////////////////////////////////////////////////////////////////// R O L E S
@@ -216,6 +375,9 @@ public class UserService implements AuthProvider {
     }
 
     repository.appendUserRoles(user, rolesToAppend);
+    revokeSignedTokens(user.getId()); // token carries stale role set
+    authCache.invalidateUser(user.getId());
+    userDirectory.invalidate();
 
     return new UserRolesAppendRemoveResponseDto(user.getId());
   }
@@ -235,6 +397,9 @@ public class UserService implements AuthProvider {
     }
 
     repository.removeUserRoles(user, rolesToDelete);
+    revokeSignedTokens(user.getId());
+    authCache.invalidateUser(user.getId());
+    userDirectory.invalidate();
 
     return new UserRolesAppendRemoveResponseDto(user.getId());
   }
@@ -260,6 +425,9 @@ public class UserService implements AuthProvider {
     }
 
     repository.activeUserRoles(user.getId(), rolesForUser, requestDto.isActive());
+    revokeSignedTokens(user.getId());
+    authCache.invalidateUser(user.getId());
+    userDirectory.invalidate();
     return new UserRolesActiveResponseDto(user.getId());
   }
 
@@ -268,11 +436,21 @@ public class UserService implements AuthProvider {
   public UserInfoResponseDto setUserInfo(UserInfoRequestDto requestDto, Auth auth) {
     long id = auth.getId();
     repository.setUserInfo(id, requestDto.getFirstName(), requestDto.getSecondName(), requestDto.getDescription());
-    return new UserInfoResponseDto(id);
+    authCache.invalidateUser(id);
+    userDirectory.invalidate();
+    if (!signedTokens) {
+      return new UserInfoResponseDto(id, null);
+    }
+    // signed tokens carry the profile: the old ones are revoked, the new one replaces the caller's
+    final var user = (User) auth;
+    revokeSignedTokens(id);
+    final var token = signedTokenGenerator.generate(new User(id, user.getLogin(), "", "", false, user.getRoles(),
+        requestDto.getFirstName(), requestDto.getSecondName(), requestDto.getDescription()));
+    return new UserInfoResponseDto(id, token);
   }
 
   public GetUserInfoResponseDto getUserInfo(String token) {
-    User user = repository.getByToken(token).orElseThrow(() -> new RuntimeException("Wrong token!"));
+    User user = getByToken(token).orElseThrow(() -> new RuntimeException("Wrong token!"));
     return new GetUserInfoResponseDto(user.getId(),
                                       user.getLogin(),
                                       user.getFirstName(),
@@ -284,22 +462,80 @@ public class UserService implements AuthProvider {
 ///////////////////////////////////////////////////////////////////////////////////////////////////////////////  F I N D
 
   public UsersByRolesResponseDto findUsers(UsersFindRequestDto requestDto) {
-    return new UsersByRolesResponseDto(repository.findUsers(requestDto.getRoles(), requestDto.getInfo()));
+    return findUsers(requestDto.getRoles(), requestDto);
   }
 
   public UsersByRolesResponseDto findUsers_Patients(UsersFindRequestDto requestDto) {
-    final var roles = AppParams.rolesPatient();
-    return new UsersByRolesResponseDto(repository.findUsers(roles, requestDto.getInfo()));
+    return findUsers(AppParams.rolesPatient(), requestDto);
   }
 
   public UsersByRolesResponseDto findUsers_Doctors(UsersFindRequestDto requestDto) {
-    final var roles = AppParams.rolesDoctor();
-    return new UsersByRolesResponseDto(repository.findUsers(roles, requestDto.getInfo()));
+    return findInDirectory(AppParams.rolesDoctor(), requestDto);
   }
 
   public UsersByRolesResponseDto findUsers_Chiefs(UsersFindRequestDto requestDto) {
-    final var roles = AppParams.rolesChief();
-    return new UsersByRolesResponseDto(repository.findUsers(roles, requestDto.getInfo()));
+    return findInDirectory(AppParams.rolesChief(), requestDto);
+  }
+
+  // streaming variants: every matching user is passed to consumer as it is read, without paging
+  public void findUsers(UsersFindRequestDto requestDto, Consumer<User> consumer) {
+    repository.findUsers(requestDto.getRoles(), requestDto.getInfo(), consumer);
+  }
+
+  public void findUsers_Patients(UsersFindRequestDto requestDto, Consumer<User> consumer) {
+    repository.findUsers(AppParams.rolesPatient(), requestDto.getInfo(), consumer);
+  }
+
+  public void findUsers_Doctors(UsersFindRequestDto requestDto, Consumer<User> consumer) {
+    findInDirectory(AppParams.rolesDoctor(), requestDto, consumer);
+  }
+
+  public void findUsers_Chiefs(UsersFindRequestDto requestDto, Consumer<User> consumer) {
+    findInDirectory(AppParams.rolesChief(), requestDto, consumer);
+  }
+
+  // keyset page in id order, one row more than the page is read to know if there is a next one
+  private UsersByRolesResponseDto findUsers(Set<String> roles, UsersFindRequestDto requestDto) {
+    final var limit = KeysetCursor.pageSize(requestDto.getLimit(), pageSize, pageSizeMax);
+    final var afterId = requestDto.getCursor() == null ? 0 : KeysetCursor.decode(requestDto.getCursor(), 1)[0];
+
+    return page(repository.findUsers(roles, requestDto.getInfo(), afterId, limit + 1), limit);
+  }
+
+  // doctors and chiefs change rarely: the same keyset pages and streams, served by the user directory
+  // (streams only from a listing already loaded by pages, otherwise by cursor as before)
+  private UsersByRolesResponseDto findInDirectory(Set<String> roles, UsersFindRequestDto requestDto) {
+    if (!userDirectory.isEnabled()) {
+      return findUsers(roles, requestDto);
+    }
+    final var limit = KeysetCursor.pageSize(requestDto.getLimit(), pageSize, pageSizeMax);
+    final var afterId = requestDto.getCursor() == null ? 0 : KeysetCursor.decode(requestDto.getCursor(), 1)[0];
+
+    return page(userDirectory.find(roles, requestDto.getInfo(), afterId, limit + 1, () -> directoryListing(roles)), limit);
+  }
+
+  private void findInDirectory(Set<String> roles, UsersFindRequestDto requestDto, Consumer<User> consumer) {
+    if (!userDirectory.isEnabled()) {
+      repository.findUsers(roles, requestDto.getInfo(), consumer);
+      return;
+    }
+    if (!userDirectory.forEach(roles, requestDto.getInfo(), consumer)) {
+      repository.findUsers(roles, requestDto.getInfo(), consumer);
+    }
+  }
+
+  private List<User> directoryListing(Set<String> roles) {
+    final var result = new ArrayList<User>();
+    repository.findUsers(roles, Set.of(), result::add);
+    return result;
+  }
+
+  private UsersByRolesResponseDto page(List<User> users, int limit) {
+    if (users.size() <= limit) {
+      return new UsersByRolesResponseDto(users, null);
+    }
+    final var page = users.subList(0, limit);
+    return new UsersByRolesResponseDto(page, KeysetCursor.encode(page.get(limit - 1).getId()));
   }
 
 }
@@ -37,9 +37,6 @@ public class MainServlet extends HttpServlet {
 
       routesPost = (Map<String, Handler>) context.getBean("routesPost");
 
-      Map<String, Set<String>> rolePermissions = (Map<String, Set<String>>) context.getBean("rolePermissions");
-      servletContext.setAttribute("PERMISSIONS", rolePermissions);
-
     } catch (Exception e) {
       throw new UnavailableException(e.getMessage());
     }
@@ -0,0 +1,3 @@
+INSERT INTO permissions(operation, role_id)
+SELECT '/api/appointment/next-available', r.id FROM roles r WHERE r.name IN ('ROLE_PATIENT', 'ROLE_DOCTOR', 'ROLE_CHIEF', 'ROLE_ADMIN')
+ON CONFLICT DO NOTHING;
@@ -0,0 +1,78 @@
+-- every month partition checks overlaps of open slots only within itself (a partitioned table can't have the
+-- exclusion constraint); a slot near a month boundary is checked against the neighbouring months here, raising
+-- the same exclusion_violation as the constraints. Slots are assumed to be of one length (minimal_appointment_time):
+-- the other months are looked at only when the new period, extended back by its own length, leaves its month.
+-- The doctor's advisory lock makes a concurrent insert into the other month wait and see this row
+CREATE OR REPLACE FUNCTION appointment_boundary_overlap() RETURNS TRIGGER AS $$
+DECLARE
+    conflict_id BIGINT;
+BEGIN
+    IF NEW.status <> 0 OR NEW.period IS NULL
+        OR date_trunc('month', lower(NEW.period) - (upper(NEW.period) - lower(NEW.period))) = date_trunc('month', upper(NEW.period)) THEN
+        RETURN NULL;
+    END IF;
+    PERFORM pg_advisory_xact_lock(1098148718, hashint8(NEW.doctor_id));
+    SELECT a.id INTO conflict_id FROM appointment a
+    WHERE a.doctor_id = NEW.doctor_id AND a.status = 0 AND a.id <> NEW.id
+      AND a.dateTime BETWEEN lower(NEW.period) - (upper(NEW.period) - lower(NEW.period)) AND upper(NEW.period)
+      AND date_trunc('month', a.dateTime) <> date_trunc('month', NEW.dateTime)
+      AND a.period && NEW.period
+    LIMIT 1;
+    IF conflict_id IS NOT NULL THEN
+        RAISE EXCEPTION 'appointment % overlaps appointment % of another month', NEW.id, conflict_id
+            USING ERRCODE = 'exclusion_violation';
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER appointment_boundary_overlap AFTER INSERT OR UPDATE OF status, period, doctor_id ON appointment
+    FOR EACH ROW EXECUTE FUNCTION appointment_boundary_overlap();
+
+-- rows outside of the created months (maintainPartitions not run yet) go here instead of failing the insert
+CREATE TABLE IF NOT EXISTS appointment_default PARTITION OF appointment DEFAULT;
+DO $$
+BEGIN
+    IF NOT EXISTS (SELECT 1 FROM pg_constraint WHERE conname = 'appointment_default_doctor_period_excl') THEN
+        ALTER TABLE appointment_default ADD CONSTRAINT appointment_default_doctor_period_excl
+            EXCLUDE USING gist (doctor_id WITH =, period WITH &&) WHERE (status = 0);
+    END IF;
+END;
+$$;
+
+-- as in V5, rows of a new month found in appointment_default are moved into its partition
+CREATE OR REPLACE FUNCTION appointment_create_partitions(since TIMESTAMP, until TIMESTAMP) RETURNS INTEGER AS $$
+DECLARE
+    month TIMESTAMP := date_trunc('month', since);
+    name TEXT;
+    created INTEGER := 0;
+    moving BOOLEAN;
+BEGIN
+    WHILE month <= until LOOP
+        name := 'appointment_' || to_char(month, 'YYYY_MM');
+        IF to_regclass(name) IS NULL THEN
+            moving := EXISTS (SELECT 1 FROM appointment_default
+                              WHERE dateTime >= month AND dateTime < month + INTERVAL '1 month');
+            IF moving THEN
+                CREATE TEMP TABLE appointment_moving ON COMMIT DROP AS
+                    SELECT * FROM appointment_default WHERE dateTime >= month AND dateTime < month + INTERVAL '1 month';
+                DELETE FROM appointment_default WHERE dateTime >= month AND dateTime < month + INTERVAL '1 month';
+            END IF;
+            EXECUTE format('CREATE TABLE %I PARTITION OF appointment FOR VALUES FROM (%L) TO (%L)',
+                           name, month, month + INTERVAL '1 month');
+            EXECUTE format('ALTER TABLE %I ADD CONSTRAINT %I EXCLUDE USING gist (doctor_id WITH =, period WITH &&) WHERE (status = 0)',
+                           name, name || '_doctor_period_excl');
+            IF moving THEN
+                INSERT INTO appointment SELECT * FROM appointment_moving;
+                DROP TABLE appointment_moving;
+            END IF;
+            created := created + 1;
+        END IF;
+        month := month + INTERVAL '1 month';
+    END LOOP;
+    RETURN created;
+END;
+$$ LANGUAGE plpgsql;
+
+-- close/cancel/getById find the row by id only and probe every attached partition, each through its (id, dateTime)
+-- primary key index; detaching old months (appointment_retention_months) keeps the number of probes bounded
@@ -0,0 +1,54 @@
+-- docker-entrypoint-initdb.d/00_schema.sql is the baseline; this brings databases created by an older 00_schema up to it
+CREATE EXTENSION IF NOT EXISTS btree_gist;
+
+-- access tables reload (RolePermissionService.refreshAccessControl)
+CREATE TABLE IF NOT EXISTS acl_version (
+    id INTEGER PRIMARY KEY DEFAULT 1 CHECK (id = 1),
+    version BIGINT NOT NULL DEFAULT 0
+);
+INSERT INTO acl_version DEFAULT VALUES ON CONFLICT DO NOTHING;
+
+CREATE OR REPLACE FUNCTION acl_version_bump() RETURNS TRIGGER AS $$
+BEGIN
+    UPDATE acl_version SET version = version + 1;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS roles_acl_version ON roles;
+CREATE TRIGGER roles_acl_version AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON roles
+    FOR EACH STATEMENT EXECUTE FUNCTION acl_version_bump();
+DROP TRIGGER IF EXISTS permissions_acl_version ON permissions;
+CREATE TRIGGER permissions_acl_version AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON permissions
+    FOR EACH STATEMENT EXECUTE FUNCTION acl_version_bump();
+
+-- session tokens
+ALTER TABLE tokens ADD COLUMN IF NOT EXISTS expires TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP + INTERVAL '1 day';
+CREATE INDEX IF NOT EXISTS tokens_expires_idx ON tokens (expires);
+
+CREATE UNLOGGED TABLE IF NOT EXISTS tokens_digest (
+    userId BIGINT NOT NULL REFERENCES users UNIQUE,
+    digest BYTEA NOT NULL,
+    expires TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP + INTERVAL '1 day'
+);
+CREATE INDEX IF NOT EXISTS tokens_digest_digest_idx ON tokens_digest USING HASH (digest);
+CREATE INDEX IF NOT EXISTS tokens_digest_expires_idx ON tokens_digest (expires);
+
+CREATE TABLE IF NOT EXISTS token_revocations (
+    user_id BIGINT PRIMARY KEY REFERENCES users,
+    revoked_at TIMESTAMP NOT NULL
+);
+
+-- slot periods; ${minimal_appointment_time} is the configured property, substituted by MigrationRunner
+ALTER TABLE appointment ADD COLUMN IF NOT EXISTS period TSRANGE;
+UPDATE appointment SET period = tsrange(dateTime, dateTime + make_interval(secs => ${minimal_appointment_time}), '[]')
+WHERE period IS NULL;
+
+DO $$
+BEGIN
+    IF NOT EXISTS (SELECT 1 FROM pg_constraint WHERE conname = 'appointment_doctor_period_excl') THEN
+        ALTER TABLE appointment ADD CONSTRAINT appointment_doctor_period_excl
+            EXCLUDE USING gist (doctor_id WITH =, period WITH &&) WHERE (status = 0);
+    END IF;
+END;
+$$;
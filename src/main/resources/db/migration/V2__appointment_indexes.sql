@@ -0,0 +1,9 @@
+-- find: date range with optional doctor/patient/status filters
+CREATE INDEX IF NOT EXISTS appointment_datetime_idx ON appointment (dateTime);
+CREATE INDEX IF NOT EXISTS appointment_doctor_datetime_idx ON appointment (doctor_id, dateTime) INCLUDE (status, patient_id);
+-- book: per patient per day limit
+CREATE INDEX IF NOT EXISTS appointment_patient_datetime_idx ON appointment (patient_id, dateTime) INCLUDE (status)
+    WHERE patient_id IS NOT NULL;
+-- availableForBooking: open and free slots only
+CREATE INDEX IF NOT EXISTS appointment_free_idx ON appointment (doctor_id, dateTime)
+    WHERE status = 0 AND patient_id IS NULL;
@@ -0,0 +1,4 @@
+-- users by role (getUsersByRoles); user_roles (user_id, role_id) is covered by its UNIQUE constraint
+CREATE INDEX IF NOT EXISTS user_roles_role_idx ON user_roles (role_id, user_id) INCLUDE (active);
+-- signed token check and revocation sweep
+CREATE INDEX IF NOT EXISTS token_revocations_revoked_at_idx ON token_revocations (revoked_at);
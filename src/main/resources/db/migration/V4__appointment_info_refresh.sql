@@ -0,0 +1,14 @@
+-- users whose user_info changed, their names are copied into future appointments by the refresh job
+CREATE TABLE IF NOT EXISTS appointment_info_refresh (
+    user_id BIGINT PRIMARY KEY REFERENCES users ON DELETE CASCADE,
+    queued_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+-- appointments are read without joining user_info, so the copies must be current once
+UPDATE appointment a SET doctorFirstName = ui.firstName, doctorSecondName = ui.secondName, doctorDescription = ui.description
+FROM user_info ui
+WHERE ui.user_id = a.doctor_id;
+
+UPDATE appointment a SET patientFirstName = ui.firstName, patientSecondName = ui.secondName, patientDescription = ui.description
+FROM user_info ui
+WHERE ui.user_id = a.patient_id;
@@ -0,0 +1,92 @@
+-- appointment is range partitioned by month on dateTime, finds by period touch only their months;
+-- partitions are named appointment_YYYY_MM and created ahead by the application (appointment_create_partitions)
+ALTER TABLE appointment RENAME TO appointment_unpartitioned;
+ALTER SEQUENCE appointment_id_seq OWNED BY NONE;
+
+CREATE TABLE appointment (
+    id BIGINT NOT NULL DEFAULT nextval('appointment_id_seq'),
+    dateTime TIMESTAMP NOT NULL,
+    status INTEGER NOT NULL DEFAULT 0,  -- 0=opened, 1=closed, -1=canceled
+
+    doctor_id BIGINT NOT NULL REFERENCES users,
+    doctorFirstName TEXT NOT NULL DEFAULT '',
+    doctorSecondName TEXT NOT NULL DEFAULT '',
+    doctorDescription TEXT NOT NULL DEFAULT '',
+
+    patient_id BIGINT REFERENCES users DEFAULT null,
+    patientFirstName TEXT NOT NULL DEFAULT '',
+    patientSecondName TEXT NOT NULL DEFAULT '',
+    patientDescription TEXT NOT NULL DEFAULT '',
+
+    accessCode TEXT NOT NULL DEFAULT '',
+    result TEXT NOT NULL DEFAULT '',
+
+    period TSRANGE,
+    -- the partition key must be a part of any unique key
+    PRIMARY KEY (id, dateTime)
+) PARTITION BY RANGE (dateTime);
+ALTER SEQUENCE appointment_id_seq OWNED BY appointment.id;
+
+-- one partition per month of [since, until]; a partitioned table can't have the exclusion constraint,
+-- so every partition gets its own (slots crossing a month boundary are checked only within their month)
+CREATE OR REPLACE FUNCTION appointment_create_partitions(since TIMESTAMP, until TIMESTAMP) RETURNS INTEGER AS $$
+DECLARE
+    month TIMESTAMP := date_trunc('month', since);
+    name TEXT;
+    created INTEGER := 0;
+BEGIN
+    WHILE month <= until LOOP
+        name := 'appointment_' || to_char(month, 'YYYY_MM');
+        IF to_regclass(name) IS NULL THEN
+            EXECUTE format('CREATE TABLE %I PARTITION OF appointment FOR VALUES FROM (%L) TO (%L)',
+                           name, month, month + INTERVAL '1 month');
+            EXECUTE format('ALTER TABLE %I ADD CONSTRAINT %I EXCLUDE USING gist (doctor_id WITH =, period WITH &&) WHERE (status = 0)',
+                           name, name || '_doctor_period_excl');
+            created := created + 1;
+        END IF;
+        month := month + INTERVAL '1 month';
+    END LOOP;
+    RETURN created;
+END;
+$$ LANGUAGE plpgsql;
+
+-- months ending not later than before are detached and kept as appointment_archive_YYYY_MM tables
+CREATE OR REPLACE FUNCTION appointment_detach_partitions(before TIMESTAMP) RETURNS INTEGER AS $$
+DECLARE
+    partition RECORD;
+    detached INTEGER := 0;
+BEGIN
+    FOR partition IN
+        SELECT c.relname AS name
+        FROM pg_inherits i
+        JOIN pg_class c ON c.oid = i.inhrelid
+        WHERE i.inhparent = 'appointment'::regclass AND c.relname ~ '^appointment_\d{4}_\d{2}$'
+          AND to_date(substr(c.relname, 13), 'YYYY_MM') + INTERVAL '1 month' <= before
+    LOOP
+        EXECUTE format('ALTER TABLE appointment DETACH PARTITION %I', partition.name);
+        EXECUTE format('ALTER TABLE %I RENAME TO %I', partition.name, 'appointment_archive_' || substr(partition.name, 13));
+        detached := detached + 1;
+    END LOOP;
+    RETURN detached;
+END;
+$$ LANGUAGE plpgsql;
+
+SELECT appointment_create_partitions(
+    LEAST((SELECT MIN(dateTime) FROM appointment_unpartitioned), LOCALTIMESTAMP),
+    GREATEST((SELECT MAX(dateTime) FROM appointment_unpartitioned), LOCALTIMESTAMP + INTERVAL '1 month'));
+
+INSERT INTO appointment(id, dateTime, status, doctor_id, doctorFirstName, doctorSecondName, doctorDescription,
+                        patient_id, patientFirstName, patientSecondName, patientDescription, accessCode, result, period)
+SELECT id, dateTime, status, doctor_id, doctorFirstName, doctorSecondName, doctorDescription,
+       patient_id, patientFirstName, patientSecondName, patientDescription, accessCode, result, period
+FROM appointment_unpartitioned;
+
+DROP TABLE appointment_unpartitioned;
+
+-- V2 indexes, now partitioned
+CREATE INDEX appointment_datetime_idx ON appointment (dateTime);
+CREATE INDEX appointment_doctor_datetime_idx ON appointment (doctor_id, dateTime) INCLUDE (status, patient_id);
+CREATE INDEX appointment_patient_datetime_idx ON appointment (patient_id, dateTime) INCLUDE (status)
+    WHERE patient_id IS NOT NULL;
+CREATE INDEX appointment_free_idx ON appointment (doctor_id, dateTime)
+    WHERE status = 0 AND patient_id IS NULL;
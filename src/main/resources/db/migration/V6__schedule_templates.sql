@@ -0,0 +1,36 @@
+-- recurring weekly schedule of a doctor: slots of [start_time, end_time) on weekday (ISO, 1 = Monday);
+-- slots exist only virtually (schedule_slots) until they are booked or canceled
+CREATE TABLE schedule_template (
+    id BIGSERIAL PRIMARY KEY,
+    doctor_id BIGINT NOT NULL REFERENCES users,
+    weekday SMALLINT NOT NULL CHECK (weekday BETWEEN 1 AND 7),
+    start_time TIME NOT NULL,
+    end_time TIME NOT NULL,
+    CHECK (start_time < end_time)
+);
+CREATE INDEX schedule_template_doctor_idx ON schedule_template (doctor_id);
+
+-- future virtual slots of [since, until] every step seconds, not overlapping any real appointment of the doctor;
+-- id = -(slot epoch seconds << 30 | template id), see AppointmentRepository.materialize
+CREATE OR REPLACE FUNCTION schedule_slots(since TIMESTAMP, until TIMESTAMP, step INTEGER)
+    RETURNS TABLE (slot_id BIGINT, slot_at TIMESTAMP, slot_doctor_id BIGINT,
+                   slot_first_name TEXT, slot_second_name TEXT, slot_description TEXT) AS $$
+    SELECT -((EXTRACT(EPOCH FROM s.at)::BIGINT << 30) | t.id), s.at, t.doctor_id,
+           COALESCE(ui.firstName, ''), COALESCE(ui.secondName, ''), COALESCE(ui.description, '')
+    FROM schedule_template t
+    CROSS JOIN LATERAL generate_series(date_trunc('day', since), until, INTERVAL '1 day') d(day)
+    CROSS JOIN LATERAL generate_series(d.day + t.start_time, d.day + t.end_time - make_interval(secs => step),
+                                       make_interval(secs => step)) s(at)
+    LEFT JOIN user_info ui ON ui.user_id = t.doctor_id
+    WHERE EXTRACT(ISODOW FROM d.day) = t.weekday
+      AND s.at BETWEEN since AND until
+      AND s.at > LOCALTIMESTAMP
+      AND NOT EXISTS (SELECT 1 FROM appointment a
+                      WHERE a.doctor_id = t.doctor_id
+                        AND a.dateTime BETWEEN s.at - make_interval(secs => step) AND s.at + make_interval(secs => step)
+                        AND a.period && tsrange(s.at, s.at + make_interval(secs => step - 1), '[]'))
+$$ LANGUAGE sql STABLE;
+
+INSERT INTO permissions(operation, role_id)
+SELECT '/api/appointment/schedule', r.id FROM roles r WHERE r.name = 'ROLE_DOCTOR'
+ON CONFLICT DO NOTHING;
@@ -0,0 +1,3 @@
+INSERT INTO permissions(operation, role_id)
+SELECT '/api/appointment/open/bulk', r.id FROM roles r WHERE r.name = 'ROLE_DOCTOR'
+ON CONFLICT DO NOTHING;
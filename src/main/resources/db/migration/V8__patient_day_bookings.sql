@@ -0,0 +1,14 @@
+-- open and closed appointments booked by a patient per day, kept by the book/unbook statements
+-- (appointment_day_limit is checked against it in the same statement that books)
+CREATE TABLE patient_day_bookings (
+    patient_id BIGINT NOT NULL REFERENCES users,
+    day DATE NOT NULL,
+    bookings INTEGER NOT NULL CHECK (bookings >= 0),
+    PRIMARY KEY (patient_id, day)
+);
+
+INSERT INTO patient_day_bookings(patient_id, day, bookings)
+SELECT patient_id, dateTime::date, COUNT(*)
+FROM appointment
+WHERE patient_id IS NOT NULL AND patient_id <> 0 AND status IN (0, 1)
+GROUP BY patient_id, dateTime::date;
@@ -0,0 +1,41 @@
+-- booking_mode=function: all book checks in one call, the slot row is locked while they run
+CREATE OR REPLACE FUNCTION book_appointment(p_id BIGINT, p_patient_id BIGINT,
+                                            p_first_name TEXT, p_second_name TEXT, p_description TEXT,
+                                            p_day_limit INTEGER,
+                                            OUT outcome TEXT, OUT slot_at TIMESTAMP, OUT access_code TEXT) AS $$
+DECLARE
+    slot RECORD;
+BEGIN
+    SELECT a.dateTime, a.status, a.patient_id INTO slot FROM appointment a WHERE a.id = p_id FOR UPDATE;
+    IF NOT FOUND THEN
+        outcome := 'WRONG_ID';
+        RETURN;
+    END IF;
+    slot_at := slot.dateTime;
+    IF slot.status <> 0 THEN
+        outcome := 'WRONG_STATUS';
+        RETURN;
+    END IF;
+    IF slot.patient_id IS NOT NULL AND slot.patient_id <> 0 THEN
+        outcome := 'ALREADY_BOOKED';
+        RETURN;
+    END IF;
+
+    IF p_day_limit > 0 THEN
+        INSERT INTO patient_day_bookings(patient_id, day, bookings) VALUES (p_patient_id, slot.dateTime::date, 1)
+        ON CONFLICT (patient_id, day) DO UPDATE SET bookings = patient_day_bookings.bookings + 1
+            WHERE patient_day_bookings.bookings < p_day_limit;
+    END IF;
+    IF p_day_limit <= 0 OR NOT FOUND THEN
+        outcome := 'DAY_LIMIT';
+        RETURN;
+    END IF;
+
+    access_code := lpad(floor(random() * 100000000)::BIGINT::TEXT, 8, '0');
+    UPDATE appointment a
+    SET patient_id = p_patient_id, patientFirstName = p_first_name, patientSecondName = p_second_name,
+        patientDescription = p_description, accessCode = access_code
+    WHERE a.id = p_id AND a.dateTime = slot.dateTime;
+    outcome := 'BOOKED';
+END;
+$$ LANGUAGE plpgsql;